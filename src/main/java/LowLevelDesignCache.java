@@ -1,10 +1,49 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 enum EvictionPolicy {
-    FIFO, LRU, LFU
+    FIFO, LRU, LFU, LINKED_LRU, BUCKET_LFU, TINY_LFU,
+    // LRU per slab size class over serialized values, built with Cache's byte capacity constructor
+    OFF_HEAP_LRU
+}
+
+// how a cache shared between threads keeps them from contending on the eviction bookkeeping
+enum ConcurrencyMode {
+    // keys are spread over one independently locked segment per processor
+    STRIPED,
+    // reads go to a concurrent map and are replayed into the policy in batches, writes take one lock
+    READ_BUFFERED
 }
 
 class CacheEntry<T> implements Comparable<CacheEntry<T>> {
@@ -12,20 +51,27 @@ class CacheEntry<T> implements Comparable<CacheEntry<T>> {
     T value;
     private final Integer operationOrder;
     final Long expirationTime;
+    final Integer weight;
 
     public CacheEntry(final String inputKey, final T inputValue,
                       final Integer operationOrder,
-                      final Long expirationTime) {
+                      final Long expirationTime,
+                      final Integer weight) {
         this.key = inputKey;
         this.value = inputValue;
         this.operationOrder = operationOrder;
         this.expirationTime = expirationTime;
+        this.weight = weight;
     }
 
     public Boolean isExpired() {
         return System.currentTimeMillis() > this.expirationTime;
     }
 
+    public boolean isExpired(final long now) {
+        return now > this.expirationTime;
+    }
+
     @Override
     public int compareTo(CacheEntry<T> o) {
         return Integer.compare(o.operationOrder, this.operationOrder);
@@ -38,21 +84,28 @@ class LfuCacheEntry<T> implements Comparable<LfuCacheEntry<T>> {
     private final Integer operationOrder;
     final Long expirationTime;
     final Long frequency;
+    final Integer weight;
 
     public LfuCacheEntry(final String inputKey, final T inputValue,
                          final Integer operationOrder,
-                         final Long expirationTime, final Long frequency) {
+                         final Long expirationTime, final Long frequency,
+                         final Integer weight) {
         this.key = inputKey;
         this.value = inputValue;
         this.operationOrder = operationOrder;
         this.expirationTime = expirationTime;
         this.frequency = frequency;
+        this.weight = weight;
     }
 
     public Boolean isExpired() {
         return System.currentTimeMillis() > this.expirationTime;
     }
 
+    public boolean isExpired(final long now) {
+        return now > this.expirationTime;
+    }
+
     @Override
     public String toString() {
         return "LfuCacheEntry{" +
@@ -61,6 +114,7 @@ class LfuCacheEntry<T> implements Comparable<LfuCacheEntry<T>> {
             ", operationOrder=" + operationOrder +
             ", expirationTime=" + expirationTime +
             ", frequency=" + frequency +
+            ", weight=" + weight +
             '}';
     }
 
@@ -82,311 +136,3902 @@ class LfuCacheEntry<T> implements Comparable<LfuCacheEntry<T>> {
     }
 }
 
-interface EvictionStrategy<T> {
+// node of the intrusive recency list, touched in place so a hit allocates nothing
+class LinkedCacheEntry<T> {
+    final String key;
+    T value;
+    long expirationTime;
+    int weight;
+    LinkedCacheEntry<T> previous;
+    LinkedCacheEntry<T> next;
+
+    LinkedCacheEntry(final String key, final T value, final long expirationTime) {
+        this.key = key;
+        this.value = value;
+        this.expirationTime = expirationTime;
+    }
 
-    EvictionPolicy policyType();
+    boolean isExpired(final long now) {
+        return now > this.expirationTime;
+    }
+}
 
-    T get(final String key);
+class BucketLfuEntry<T> {
+    final String key;
+    T value;
+    long expirationTime;
+    int weight;
+    LfuFrequencyBucket<T> bucket;
+    BucketLfuEntry<T> previous;
+    BucketLfuEntry<T> next;
+
+    BucketLfuEntry(final String key, final T value, final long expirationTime) {
+        this.key = key;
+        this.value = value;
+        this.expirationTime = expirationTime;
+    }
 
-    void put(final String key, final T value);
+    boolean isExpired(final long now) {
+        return now > this.expirationTime;
+    }
 }
 
-class LfuEvictionStrategy<T> implements EvictionStrategy<T> {
-    private final TreeSet<LfuCacheEntry<T>> cacheEntries;
-    private final Map<String, LfuCacheEntry<T>> keyLookup;
-    private int operationOrder;
-    private final Integer capacity;
-    private final Long expirationTime;
+// all entries sharing one access count, most recently touched first
+class LfuFrequencyBucket<T> {
+    long frequency;
+    int size;
+    final BucketLfuEntry<T> head;
+    LfuFrequencyBucket<T> previous;
+    LfuFrequencyBucket<T> next;
 
-    LfuEvictionStrategy(final Integer capacity, final Long expirationTime) {
-        operationOrder = 0;
-        this.capacity = capacity;
-        this.expirationTime = expirationTime;
-        this.cacheEntries = new TreeSet<>();
-        this.keyLookup = new HashMap<>();
+    LfuFrequencyBucket(final long frequency) {
+        this.frequency = frequency;
+        this.head = new BucketLfuEntry<>(null, null, Long.MAX_VALUE);
+        this.head.next = head;
+        this.head.previous = head;
     }
 
-    @Override
-    public EvictionPolicy policyType() {
-        return EvictionPolicy.LFU;
+    boolean isEmpty() {
+        return size == 0;
     }
 
-    private void reviseOrder(final String key) {
-        final var retrievedEntry = keyLookup.get(key);
-        cacheEntries.remove(retrievedEntry);
+    void addFirst(final BucketLfuEntry<T> entry) {
+        entry.bucket = this;
+        entry.previous = head;
+        entry.next = head.next;
+        head.next.previous = entry;
+        head.next = entry;
+        size += 1;
+    }
 
-        final var newEntry = new LfuCacheEntry<>(key, retrievedEntry.value, operationOrder,
-            retrievedEntry.expirationTime, retrievedEntry.frequency + 1L);
+    void remove(final BucketLfuEntry<T> entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        entry.previous = null;
+        entry.next = null;
+        entry.bucket = null;
+        size -= 1;
+    }
 
-        cacheEntries.add(newEntry);
-        keyLookup.replace(key, newEntry);
+    BucketLfuEntry<T> leastRecent() {
+        return head.previous == head ? null : head.previous;
     }
+}
 
-    private void reviseOrder(final String key, final T newValue) {
-        final var retrievedEntry = keyLookup.get(key);
-        cacheEntries.remove(retrievedEntry);
+enum TinyLfuRegion {
+    WINDOW, PROBATION, PROTECTED
+}
 
-        final var newEntry = new LfuCacheEntry<>(key, newValue, operationOrder,
-            System.currentTimeMillis() + this.expirationTime, retrievedEntry.frequency + 1L);
+class TinyLfuEntry<T> {
+    final String key;
+    T value;
+    long expirationTime;
+    int weight;
+    TinyLfuRegion region;
+    TinyLfuEntry<T> previous;
+    TinyLfuEntry<T> next;
+
+    TinyLfuEntry(final String key, final T value, final long expirationTime) {
+        this.key = key;
+        this.value = value;
+        this.expirationTime = expirationTime;
+    }
 
-        cacheEntries.add(newEntry);
-        keyLookup.replace(key, newEntry);
+    boolean isExpired(final long now) {
+        return now > this.expirationTime;
     }
+}
 
-    private void evictAllRetired() {
-        cacheEntries.stream()
-            .filter(LfuCacheEntry::isExpired)
-            .forEach(keyLookup::remove);
+// one LRU queue of the W-TinyLFU layout, most recently used first
+class TinyLfuQueue<T> {
+    final TinyLfuRegion region;
+    long weight;
+    private final TinyLfuEntry<T> head;
+
+    TinyLfuQueue(final TinyLfuRegion region) {
+        this.region = region;
+        this.head = new TinyLfuEntry<>(null, null, Long.MAX_VALUE);
+        this.head.next = head;
+        this.head.previous = head;
+    }
 
-        this.cacheEntries.removeIf(LfuCacheEntry::isExpired);
+    void addFirst(final TinyLfuEntry<T> entry) {
+        entry.region = region;
+        entry.previous = head;
+        entry.next = head.next;
+        head.next.previous = entry;
+        head.next = entry;
+        weight += entry.weight;
     }
 
-    @Override
-    public T get(String key) {
-        final var retrievedEntry = keyLookup.get(key);
+    void remove(final TinyLfuEntry<T> entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        entry.previous = null;
+        entry.next = null;
+        weight -= entry.weight;
+    }
 
-        if (key == null) {
-            return null;
+    void moveToFront(final TinyLfuEntry<T> entry) {
+        remove(entry);
+        addFirst(entry);
+    }
+
+    TinyLfuEntry<T> leastRecent() {
+        return head.previous == head ? null : head.previous;
+    }
+
+    TinyLfuEntry<T> mostRecent() {
+        return head.next == head ? null : head.next;
+    }
+
+    void forEachFromLeastRecent(final Consumer<TinyLfuEntry<T>> action) {
+        var entry = head.previous;
+
+        while (entry != head) {
+            final var moreRecent = entry.previous;
+
+            action.accept(entry);
+            entry = moreRecent;
         }
-        if (retrievedEntry.isExpired()) {
-            cacheEntries.remove(retrievedEntry);
-            keyLookup.remove(key);
+    }
+}
 
-            return null;
+// count-min sketch of 4-bit counters, halved every sampleSize increments so old popularity fades
+class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(final int capacity) {
+        var tableSize = 16;
+        while (tableSize < capacity) {
+            tableSize <<= 1;
         }
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = 10 * Math.max(capacity, 1);
+    }
 
-        operationOrder += 1;
-        reviseOrder(key);
+    private static int spread(final String key) {
+        final var hash = key.hashCode() * 0x31848bab;
 
-        return retrievedEntry.value;
+        return hash ^ (hash >>> 14);
     }
 
-    @Override
-    public void put(String key, T value) {
-        operationOrder += 1;
-        if (keyLookup.containsKey(key)) {
-            reviseOrder(key, value);
-            return;
+    private int indexOf(final int hash, final int depth) {
+        var mixed = (hash + SEEDS[depth]) * SEEDS[depth];
+
+        mixed += mixed >>> 32;
+        return ((int) mixed) & tableMask;
+    }
+
+    int frequency(final String key) {
+        final var hash = spread(key);
+        final var start = (hash & 3) << 2;
+        var frequency = Integer.MAX_VALUE;
+
+        for (int depth = 0; depth < SEEDS.length; depth += 1) {
+            final var shift = (start + depth) << 2;
+            final var count = (int) ((table[indexOf(hash, depth)] >>> shift) & 0xfL);
+
+            frequency = Math.min(frequency, count);
         }
+        return frequency;
+    }
 
-        final var newEntry = new LfuCacheEntry<>(
-            key,
-            value,
-            operationOrder,
-            System.currentTimeMillis() + this.expirationTime,
-            1L);
+    void increment(final String key) {
+        final var hash = spread(key);
+        final var start = (hash & 3) << 2;
+        var added = false;
 
-        if (cacheEntries.size() == capacity) {
-            evictAllRetired();
+        for (int depth = 0; depth < SEEDS.length; depth += 1) {
+            final var index = indexOf(hash, depth);
+            final var shift = (start + depth) << 2;
 
-            if (cacheEntries.size() == capacity) {
-                final var lastKey = cacheEntries.pollLast().key;
+            if (((table[index] >>> shift) & 0xfL) != 0xfL) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
 
-                keyLookup.remove(lastKey);
+        if (added && ++size == sampleSize) {
+            for (int i = 0; i < table.length; i += 1) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
             }
+            size >>>= 1;
         }
+    }
+}
 
-        cacheEntries.add(newEntry);
-        keyLookup.put(key, newEntry);
+interface ValueSerializer<T> {
+    byte[] serialize(final T value);
+
+    // source is positioned at the first byte of the value and limited to its length
+    T deserialize(final ByteBuffer source);
+}
+
+class StringValueSerializer implements ValueSerializer<String> {
+
+    @Override
+    public byte[] serialize(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String deserialize(final ByteBuffer source) {
+        final var bytes = new byte[source.remaining()];
+
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 }
 
-class LruEvictionStrategy<T> implements EvictionStrategy<T> {
-    private final TreeSet<CacheEntry<T>> orderedEntries;
-    private final Map<String, CacheEntry<T>> keyLookup;
-    private final Long expiration;
-    private final Integer capacity;
-    private int operationOrder = 0;
+// on-heap index record of a value that lives in an off-heap slab chunk
+class OffHeapIndexEntry {
+    final String key;
+    final int slabClass;
+    final int slabIndex;
+    final int offset;
+    int length;
+    int weight;
+    long expirationTime;
+    OffHeapIndexEntry previous;
+    OffHeapIndexEntry next;
+
+    OffHeapIndexEntry(final String key, final int slabClass, final int slabIndex, final int offset,
+                      final int length, final int weight, final long expirationTime) {
+        this.key = key;
+        this.slabClass = slabClass;
+        this.slabIndex = slabIndex;
+        this.offset = offset;
+        this.length = length;
+        this.weight = weight;
+        this.expirationTime = expirationTime;
+    }
 
-    LruEvictionStrategy(final Integer capacity, final Long cacheEvictDuration) {
-        this.capacity = capacity;
-        this.orderedEntries = new TreeSet<>();
-        this.keyLookup = new TreeMap<>();
-        this.expiration = cacheEvictDuration;
+    boolean isExpired(final long now) {
+        return now > this.expirationTime;
     }
+}
 
-    private void resetEntryToBegin(final String key) {
-        final var olderEntry = keyLookup.get(key);
-        final var newEntry = new CacheEntry<>(
-            key, olderEntry.value, operationOrder, olderEntry.expirationTime
-        );
-        orderedEntries.remove(olderEntry);
-        orderedEntries.add(newEntry);
-        keyLookup.replace(key, newEntry);
-    } // try considering making point in time updates instead of adding and removing
+// all chunks of one size: a stack of free chunk addresses plus an LRU list of the occupied ones
+class SlabClass {
+    final int chunkSize;
+    int slabCount;
+    private long[] freeChunks;
+    private int freeCount;
+    final OffHeapIndexEntry head;
+
+    SlabClass(final int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.freeChunks = new long[16];
+        this.head = new OffHeapIndexEntry(null, -1, -1, -1, 0, 0, Long.MAX_VALUE);
+        this.head.next = head;
+        this.head.previous = head;
+    }
 
-    private void resetEntryToBegin(final String key, final T newValue) {
-        final var olderEntry = keyLookup.get(key);
-        final var newEntry = new CacheEntry<>(
-            key, newValue, operationOrder, System.currentTimeMillis() + this.expiration
-        );
+    static long address(final int slabIndex, final int offset) {
+        return ((long) slabIndex << 32) | offset;
+    }
 
-        orderedEntries.remove(olderEntry);
-        orderedEntries.add(newEntry);
-        keyLookup.replace(key, newEntry);
+    boolean hasFreeChunk() {
+        return freeCount > 0;
     }
 
-    private void evictRetiredEntries() {
-        orderedEntries.stream()
-            .filter(CacheEntry::isExpired)
-            .forEach(keyLookup::remove);
+    long takeFreeChunk() {
+        freeCount -= 1;
+        return freeChunks[freeCount];
+    }
 
-        orderedEntries.removeIf(CacheEntry::isExpired);
+    void releaseChunk(final long chunkAddress) {
+        if (freeCount == freeChunks.length) {
+            freeChunks = Arrays.copyOf(freeChunks, freeCount * 2);
+        }
+        freeChunks[freeCount] = chunkAddress;
+        freeCount += 1;
     }
 
-    @Override
-    public T get(String key) {
-        final var retrievedEntry = keyLookup.get(key);
+    void dropChunksOf(final int slabIndex) {
+        var kept = 0;
 
-        if (key == null) {
-            return null;
+        for (int i = 0; i < freeCount; i += 1) {
+            if ((int) (freeChunks[i] >>> 32) != slabIndex) {
+                freeChunks[kept] = freeChunks[i];
+                kept += 1;
+            }
         }
-        if (retrievedEntry.isExpired()) {
-            orderedEntries.remove(retrievedEntry);
-            keyLookup.remove(key);
+        freeCount = kept;
+    }
 
-            return null;
+    void linkFirst(final OffHeapIndexEntry entry) {
+        entry.previous = head;
+        entry.next = head.next;
+        head.next.previous = entry;
+        head.next = entry;
+    }
+
+    void unlink(final OffHeapIndexEntry entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    OffHeapIndexEntry leastRecent() {
+        return head.previous == head ? null : head.previous;
+    }
+}
+
+class TimerWheelNode {
+    final String key;
+    long expirationTime;
+    TimerWheelNode previous;
+    TimerWheelNode next;
+
+    TimerWheelNode(final String key, final long expirationTime) {
+        this.key = key;
+        this.expirationTime = expirationTime;
+    }
+}
+
+// hierarchical timing wheel over expiration times, entries cascade to finer levels as they come due
+class TimerWheel {
+    // bucket widths of 16ms, ~1s, ~65s, ~70min and ~3 days; the last level is a single overflow bucket
+    private static final int[] SHIFTS = {4, 10, 16, 22, 28};
+    private static final int[] BUCKETS = {64, 64, 64, 64, 1};
+
+    private final TimerWheelNode[][] wheel;
+    private final Map<String, TimerWheelNode> nodes;
+    private long currentTime;
+
+    TimerWheel(final long currentTime) {
+        this.currentTime = currentTime;
+        this.nodes = new HashMap<>();
+        this.wheel = new TimerWheelNode[SHIFTS.length][];
+
+        for (int level = 0; level < SHIFTS.length; level += 1) {
+            wheel[level] = new TimerWheelNode[BUCKETS[level]];
+            for (int bucket = 0; bucket < BUCKETS[level]; bucket += 1) {
+                final var sentinel = new TimerWheelNode(null, Long.MAX_VALUE);
+
+                sentinel.next = sentinel;
+                sentinel.previous = sentinel;
+                wheel[level][bucket] = sentinel;
+            }
         }
+    }
 
-        operationOrder += 1;
-        resetEntryToBegin(key);
+    void schedule(final String key, final long expirationTime) {
+        final var existingNode = nodes.get(key);
 
-        return retrievedEntry.value;
+        if (existingNode != null) {
+            unlink(existingNode);
+            existingNode.expirationTime = expirationTime;
+            link(existingNode);
+            return;
+        }
+        final var newNode = new TimerWheelNode(key, expirationTime);
+
+        nodes.put(key, newNode);
+        link(newNode);
     }
 
-    public void put(final String key, final T newValue) {
-        operationOrder += 1;
+    void cancel(final String key) {
+        final var node = nodes.remove(key);
 
-        if (!keyLookup.containsKey(key)) {
-            final var newCacheEntry = new CacheEntry<T>(
-                key, newValue, operationOrder, System.currentTimeMillis() + this.expiration);
+        if (node != null) {
+            unlink(node);
+        }
+    }
 
-            if (orderedEntries.size() == capacity) {
-                evictRetiredEntries();
+    // keys handed to onExpired are already unscheduled
+    void advance(final long now, final Consumer<String> onExpired) {
+        final var previousTime = currentTime;
+        currentTime = now;
 
-                if (orderedEntries.size() == capacity) {
-                    final var lastKey = orderedEntries.pollLast().key;
+        for (int level = 0; level < SHIFTS.length; level += 1) {
+            final var previousTicks = previousTime >>> SHIFTS[level];
+            final var elapsedTicks = (now >>> SHIFTS[level]) - previousTicks;
+
+            if (elapsedTicks <= 0) {
+                break;
+            }
+            expireBuckets(level, previousTicks, elapsedTicks, onExpired);
+        }
+    }
 
-                    keyLookup.remove(lastKey);
+    private void expireBuckets(final int level, final long previousTicks, final long elapsedTicks,
+                               final Consumer<String> onExpired) {
+        final var buckets = wheel[level];
+        final var mask = buckets.length - 1;
+        final var steps = (int) Math.min(1 + elapsedTicks, buckets.length);
+        final var start = (int) (previousTicks & mask);
+
+        for (int i = start; i < start + steps; i += 1) {
+            final var sentinel = buckets[i & mask];
+            var node = sentinel.next;
+
+            sentinel.next = sentinel;
+            sentinel.previous = sentinel;
+            while (node != sentinel) {
+                final var nextNode = node.next;
+
+                node.previous = null;
+                node.next = null;
+                if (currentTime > node.expirationTime) {
+                    nodes.remove(node.key);
+                    onExpired.accept(node.key);
+                } else {
+                    link(node);
                 }
+                node = nextNode;
             }
+        }
+    }
 
-            orderedEntries.add(newCacheEntry);
-            keyLookup.put(key, newCacheEntry);
-        } else {
-            resetEntryToBegin(key, newValue);
+    private void link(final TimerWheelNode node) {
+        final var remaining = node.expirationTime - currentTime;
+        var level = 0;
+
+        while (level < SHIFTS.length - 1 && remaining >= (1L << SHIFTS[level + 1])) {
+            level += 1;
         }
+        final var bucketIndex = (int) ((node.expirationTime >>> SHIFTS[level]) & (BUCKETS[level] - 1));
+        final var sentinel = wheel[level][bucketIndex];
+
+        node.next = sentinel;
+        node.previous = sentinel.previous;
+        sentinel.previous.next = node;
+        sentinel.previous = node;
     }
 
-    @Override
-    public EvictionPolicy policyType() {
-        return EvictionPolicy.LRU;
+    private void unlink(final TimerWheelNode node) {
+        if (node.previous == null) {
+            return;
+        }
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        node.previous = null;
+        node.next = null;
     }
 }
 
-class FifoEvictionStrategy<T> implements EvictionStrategy<T> {
-    private final TreeSet<CacheEntry<T>> orderedList;
-    private final Map<String, CacheEntry<T>> keyLookUp;
-    private final Long expiration;
-    private final Integer capacity;
-    private Integer operationOrder;
+enum RemovalCause {
+    SIZE, EXPIRED, EXPLICIT
+}
 
-    FifoEvictionStrategy(final Integer capacity, final Long expiration) {
-        this.operationOrder = 0;
-        this.expiration = expiration;
-        this.capacity = capacity;
-        this.keyLookUp = new HashMap<>();
-        this.orderedList = new TreeSet<>();
+interface RemovalListener<T> {
+    void onRemoval(final String key, final T value, final RemovalCause cause);
+}
+
+interface Weigher<T> {
+    int weigh(final String key, final T value);
+}
+
+// immutable point-in-time view of a StatsCounter; two snapshots can be diffed with minus
+class CacheStats {
+    static final CacheStats EMPTY = new CacheStats(0L, 0L, 0L, 0L, 0L,
+        new long[RemovalCause.values().length], new long[RemovalCause.values().length]);
+
+    final long hitCount;
+    final long missCount;
+    final long loadSuccessCount;
+    final long loadFailureCount;
+    final long totalLoadTime;
+    private final long[] evictionCounts;
+    private final long[] evictionWeights;
+
+    // the arrays are indexed by RemovalCause ordinal and copied so the snapshot cannot change later
+    CacheStats(final long hitCount, final long missCount, final long loadSuccessCount,
+               final long loadFailureCount, final long totalLoadTime,
+               final long[] evictionCounts, final long[] evictionWeights) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCounts = evictionCounts.clone();
+        this.evictionWeights = evictionWeights.clone();
     }
 
-    private void evictExpiredEntries() {
-        while (!orderedList.isEmpty() && orderedList.last().isExpired()) {
-            orderedList.pollLast();
-        }
+    long requestCount() {
+        return hitCount + missCount;
     }
 
-    @Override
-    public T get(final String key) {
-        final CacheEntry<T> maybeEntry = keyLookUp.get(key);
-        if (maybeEntry == null || maybeEntry.isExpired()) {
-            return null;
-        }
+    double hitRate() {
+        final var requestCount = requestCount();
 
-        return maybeEntry.value;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
     }
 
-    @Override
-    public void put(final String key, final T newValue) {
-        operationOrder += 1;
-        final var cachedEntry = new CacheEntry<>(key, newValue, operationOrder,
-            System.currentTimeMillis() + this.expiration);
-
-        evictExpiredEntries();
-        if (keyLookUp.containsKey(key)) {
-            orderedList.remove(keyLookUp.get(key));
-            keyLookUp.remove(key);
-        }
+    // nanoseconds spent per load, failed loads included
+    double averageLoadPenalty() {
+        final var loadCount = loadSuccessCount + loadFailureCount;
 
-        orderedList.add(cachedEntry);
-        keyLookUp.put(key, cachedEntry);
+        return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
 
-        if (orderedList.size() > capacity) {
-            final var toBeRemoved = orderedList.pollLast();
+    long evictionCount(final RemovalCause cause) {
+        return evictionCounts[cause.ordinal()];
+    }
 
-            keyLookUp.remove(toBeRemoved.key);
-        }
+    long evictionWeight(final RemovalCause cause) {
+        return evictionWeights[cause.ordinal()];
     }
 
-    @Override
-    public EvictionPolicy policyType() {
-        return EvictionPolicy.FIFO;
+    long evictionCount() {
+        return Arrays.stream(evictionCounts).sum();
     }
-}
 
-class Cache<T> {
+    long evictionWeight() {
+        return Arrays.stream(evictionWeights).sum();
+    }
 
-    private final EvictionStrategy<T> strategy;
+    // what happened between an earlier snapshot and this one
+    CacheStats minus(final CacheStats earlier) {
+        final var countDelta = new long[evictionCounts.length];
+        final var weightDelta = new long[evictionWeights.length];
 
-    public Cache(final EvictionPolicy userEvictionPolicy,
-                 final Long expirationWindow,
-                 final Integer capacity) {
-        if (userEvictionPolicy == EvictionPolicy.LRU) {
-            strategy = new LruEvictionStrategy<>(capacity, expirationWindow);
-        } else if (userEvictionPolicy == EvictionPolicy.FIFO) {
-            strategy = new FifoEvictionStrategy<>(capacity, expirationWindow);
-        } else if (userEvictionPolicy == EvictionPolicy.LFU) {
-            strategy = new LfuEvictionStrategy<>(capacity, expirationWindow);
-        } else {
-            strategy = null;
-            System.err.println("not able to find relevant strategy");
+        for (int i = 0; i < countDelta.length; i += 1) {
+            countDelta[i] = evictionCounts[i] - earlier.evictionCounts[i];
+            weightDelta[i] = evictionWeights[i] - earlier.evictionWeights[i];
         }
+        return new CacheStats(hitCount - earlier.hitCount, missCount - earlier.missCount,
+            loadSuccessCount - earlier.loadSuccessCount, loadFailureCount - earlier.loadFailureCount,
+            totalLoadTime - earlier.totalLoadTime, countDelta, weightDelta);
     }
 
-    T get(final String key) {
-        return strategy.get(key);
+    // flat metric name to value view, for exporting to whatever collects the numbers
+    Map<String, Long> toMap() {
+        final var metrics = new LinkedHashMap<String, Long>();
+
+        metrics.put("hits", hitCount);
+        metrics.put("misses", missCount);
+        metrics.put("loadSuccesses", loadSuccessCount);
+        metrics.put("loadFailures", loadFailureCount);
+        metrics.put("totalLoadTimeNanos", totalLoadTime);
+        for (final var cause : RemovalCause.values()) {
+            final var name = cause.name().toLowerCase();
+
+            metrics.put("evictions." + name, evictionCount(cause));
+            metrics.put("evictedWeight." + name, evictionWeight(cause));
+        }
+        return Collections.unmodifiableMap(metrics);
     }
 
-    void put(final String key, final T incomingValue) {
-        strategy.put(key, incomingValue);
+    @Override
+    public String toString() {
+        return "CacheStats" + toMap();
     }
 }
 
-public class LowLevelDesignCache {
+interface StatsCounter {
+    void recordHits(final int count);
 
-    public static void main(String[] args) {
-        final var cacheSystem = new Cache<Long>(EvictionPolicy.LRU, 2000L, 4);
+    void recordMisses(final int count);
 
-        cacheSystem.put("1", 1L);
-        cacheSystem.put("2", 2L);
-        cacheSystem.put("3", 3L);
-        cacheSystem.put("4", 4L);
-        cacheSystem.put("5", 5L);
+    void recordLoadSuccess(final long loadTime);
 
-        System.out.println(cacheSystem.get("1"));
-        System.out.println(cacheSystem.get("2"));
+    void recordLoadFailure(final long loadTime);
+
+    void recordEviction(final RemovalCause cause, final long weight);
+
+    CacheStats snapshot();
+}
+
+// installed by default; every call is an empty method the JIT inlines away, so unused stats cost nothing
+class DisabledStatsCounter implements StatsCounter {
+    static final DisabledStatsCounter INSTANCE = new DisabledStatsCounter();
+
+    private DisabledStatsCounter() {
+    }
+
+    @Override
+    public void recordHits(final int count) {
+    }
+
+    @Override
+    public void recordMisses(final int count) {
+    }
+
+    @Override
+    public void recordLoadSuccess(final long loadTime) {
+    }
+
+    @Override
+    public void recordLoadFailure(final long loadTime) {
+    }
+
+    @Override
+    public void recordEviction(final RemovalCause cause, final long weight) {
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        return CacheStats.EMPTY;
+    }
+}
+
+// LongAdder stripes its cells across threads, so recording on the read path does not contend on one counter
+class ConcurrentStatsCounter implements StatsCounter {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder[] evictionCounts = new LongAdder[RemovalCause.values().length];
+    private final LongAdder[] evictionWeights = new LongAdder[RemovalCause.values().length];
+
+    ConcurrentStatsCounter() {
+        for (int i = 0; i < evictionCounts.length; i += 1) {
+            evictionCounts[i] = new LongAdder();
+            evictionWeights[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void recordHits(final int count) {
+        hitCount.add(count);
+    }
+
+    @Override
+    public void recordMisses(final int count) {
+        missCount.add(count);
+    }
+
+    @Override
+    public void recordLoadSuccess(final long loadTime) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    @Override
+    public void recordLoadFailure(final long loadTime) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    @Override
+    public void recordEviction(final RemovalCause cause, final long weight) {
+        evictionCounts[cause.ordinal()].increment();
+        evictionWeights[cause.ordinal()].add(weight);
+    }
+
+    // each adder is summed on its own, so a snapshot taken under load is close to but not exactly atomic
+    @Override
+    public CacheStats snapshot() {
+        final var counts = new long[evictionCounts.length];
+        final var weights = new long[evictionWeights.length];
+
+        for (int i = 0; i < counts.length; i += 1) {
+            counts[i] = evictionCounts[i].sum();
+            weights[i] = evictionWeights[i].sum();
+        }
+        return new CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(),
+            loadFailureCount.sum(), totalLoadTime.sum(), counts, weights);
+    }
+}
+
+// one live entry as a snapshot carries it, the ttl is kept relative so it still means something after a restart
+class SnapshotEntry<T> {
+    final String key;
+    final T value;
+    final long remainingTtl;
+    final long frequency;
+
+    SnapshotEntry(final String key, final T value, final long remainingTtl, final long frequency) {
+        this.key = key;
+        this.value = value;
+        this.remainingTtl = remainingTtl;
+        this.frequency = frequency;
+    }
+}
+
+interface EvictionStrategy<T> {
+
+    EvictionPolicy policyType();
+
+    T get(final String key);
+
+    void put(final String key, final T value);
+
+    // same as put but the entry lives for ttl milliseconds instead of the strategy wide expiration
+    void put(final String key, final T value, final Long ttl);
+
+    // present, unexpired entries only; one clock read and one bookkeeping pass for the whole batch
+    Map<String, T> getAll(final Collection<String> keys);
+
+    // writes the whole batch before evicting once, so a bulk load does not pay for an eviction per key
+    void putAll(final Map<String, T> entries);
+
+    // drops the entry on request, listeners see it with RemovalCause.EXPLICIT
+    void invalidate(final String key);
+
+    // notified whenever the strategy drops an entry on its own
+    void setRemovalListener(final RemovalListener<T> listener);
+
+    // told about every removal along with the weight it freed, hits and misses are counted by Cache
+    void setStatsCounter(final StatsCounter statsCounter);
+
+    // live entries ordered from the next one to be evicted to the last, so replaying them rebuilds the order
+    List<SnapshotEntry<T>> snapshot();
+
+    // replays snapshot entries in the given order; keys that are already cached keep their current entry
+    void restore(final List<SnapshotEntry<T>> entries);
+
+    // turns capacity into a weight budget, set before the first put; every entry weighs 1 by default
+    void setWeigher(final Weigher<T> weigher, final Long maximumWeight);
+
+    long weight();
+}
+
+class LfuEvictionStrategy<T> implements EvictionStrategy<T> {
+    private final TreeSet<LfuCacheEntry<T>> cacheEntries;
+    private final Map<String, LfuCacheEntry<T>> keyLookup;
+    private int operationOrder;
+    private final Long expirationTime;
+    private final TimerWheel expirationWheel;
+    private Weigher<T> weigher = (key, value) -> 1;
+    private long maximumWeight;
+    private long totalWeight;
+    private RemovalListener<T> removalListener = (key, value, cause) -> { };
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    LfuEvictionStrategy(final Integer capacity, final Long expirationTime) {
+        operationOrder = 0;
+        this.maximumWeight = capacity;
+        this.expirationTime = expirationTime;
+        this.cacheEntries = new TreeSet<>();
+        this.keyLookup = new HashMap<>();
+        this.expirationWheel = new TimerWheel(System.currentTimeMillis());
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+    }
+
+    @Override
+    public long weight() {
+        return totalWeight;
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        final var invalidatedEntry = keyLookup.remove(key);
+
+        if (invalidatedEntry == null) {
+            return;
+        }
+        cacheEntries.remove(invalidatedEntry);
+        expirationWheel.cancel(key);
+        totalWeight -= invalidatedEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPLICIT, invalidatedEntry.weight);
+        removalListener.onRemoval(key, invalidatedEntry.value, RemovalCause.EXPLICIT);
+    }
+
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        final var now = System.currentTimeMillis();
+        final var entries = new ArrayList<SnapshotEntry<T>>(cacheEntries.size());
+
+        for (final var entry : cacheEntries.descendingSet()) {
+            if (!entry.isExpired(now)) {
+                entries.add(new SnapshotEntry<>(entry.key, entry.value, entry.expirationTime - now, entry.frequency));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var now = System.currentTimeMillis();
+
+        for (final var entry : entries) {
+            if (keyLookup.containsKey(entry.key)) {
+                continue;
+            }
+            operationOrder += 1;
+            final var restoredEntry = new LfuCacheEntry<>(entry.key, entry.value, operationOrder,
+                now + entry.remainingTtl, Math.max(1L, entry.frequency), weigher.weigh(entry.key, entry.value));
+
+            cacheEntries.add(restoredEntry);
+            keyLookup.put(entry.key, restoredEntry);
+            totalWeight += restoredEntry.weight;
+            expirationWheel.schedule(entry.key, restoredEntry.expirationTime);
+        }
+        evictOverweight(null);
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return EvictionPolicy.LFU;
+    }
+
+    private void reviseOrder(final String key) {
+        final var retrievedEntry = keyLookup.get(key);
+        cacheEntries.remove(retrievedEntry);
+
+        final var newEntry = new LfuCacheEntry<>(key, retrievedEntry.value, operationOrder,
+            retrievedEntry.expirationTime, retrievedEntry.frequency + 1L, retrievedEntry.weight);
+
+        cacheEntries.add(newEntry);
+        keyLookup.replace(key, newEntry);
+    }
+
+    private void reviseOrder(final String key, final T newValue, final long newExpirationTime) {
+        final var retrievedEntry = keyLookup.get(key);
+        cacheEntries.remove(retrievedEntry);
+
+        final var newEntry = new LfuCacheEntry<>(key, newValue, operationOrder,
+            newExpirationTime, retrievedEntry.frequency + 1L, weigher.weigh(key, newValue));
+
+        totalWeight += newEntry.weight - retrievedEntry.weight;
+        cacheEntries.add(newEntry);
+        keyLookup.replace(key, newEntry);
+        expirationWheel.schedule(key, newExpirationTime);
+    }
+
+    private void evictRetired(final String key) {
+        final var retiredEntry = keyLookup.remove(key);
+
+        cacheEntries.remove(retiredEntry);
+        totalWeight -= retiredEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPIRED, retiredEntry.weight);
+        removalListener.onRemoval(key, retiredEntry.value, RemovalCause.EXPIRED);
+    }
+
+    @Override
+    public T get(String key) {
+        return read(key, System.currentTimeMillis());
+    }
+
+    private T read(final String key, final long now) {
+        final var retrievedEntry = keyLookup.get(key);
+
+        if (key == null || retrievedEntry == null) {
+            return null;
+        }
+        if (retrievedEntry.isExpired(now)) {
+            cacheEntries.remove(retrievedEntry);
+            keyLookup.remove(key);
+            expirationWheel.cancel(key);
+            totalWeight -= retrievedEntry.weight;
+            statsCounter.recordEviction(RemovalCause.EXPIRED, retrievedEntry.weight);
+            removalListener.onRemoval(key, retrievedEntry.value, RemovalCause.EXPIRED);
+
+            return null;
+        }
+
+        operationOrder += 1;
+        reviseOrder(key);
+
+        return retrievedEntry.value;
+    }
+
+    @Override
+    public void put(String key, T value) {
+        put(key, value, this.expirationTime);
+    }
+
+    @Override
+    public void put(String key, T value, Long ttl) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictRetired);
+        write(key, value, now + ttl);
+        evictOverweight(keyLookup.get(key));
+    }
+
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var now = System.currentTimeMillis();
+        final var presentEntries = new HashMap<String, T>();
+
+        for (final var key : keys) {
+            final var value = read(key, now);
+
+            if (value != null) {
+                presentEntries.put(key, value);
+            }
+        }
+        return presentEntries;
+    }
+
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictRetired);
+        entries.forEach((key, value) -> write(key, value, now + this.expirationTime));
+        evictOverweight(null);
+    }
+
+    private void write(final String key, final T value, final long newExpirationTime) {
+        operationOrder += 1;
+        if (keyLookup.containsKey(key)) {
+            reviseOrder(key, value, newExpirationTime);
+            return;
+        }
+
+        final var newEntry = new LfuCacheEntry<>(
+            key,
+            value,
+            operationOrder,
+            newExpirationTime,
+            1L,
+            weigher.weigh(key, value));
+
+        cacheEntries.add(newEntry);
+        keyLookup.put(key, newEntry);
+        totalWeight += newEntry.weight;
+        expirationWheel.schedule(key, newEntry.expirationTime);
+    }
+
+    private void evictOverweight(final LfuCacheEntry<T> writtenEntry) {
+        while (totalWeight > maximumWeight && !cacheEntries.isEmpty()) {
+            // the entry just written only goes once nothing else is left to evict
+            final var lastEntry = cacheEntries.last() == writtenEntry && cacheEntries.size() > 1
+                ? cacheEntries.lower(writtenEntry)
+                : cacheEntries.last();
+
+            cacheEntries.remove(lastEntry);
+            keyLookup.remove(lastEntry.key);
+            expirationWheel.cancel(lastEntry.key);
+            totalWeight -= lastEntry.weight;
+            statsCounter.recordEviction(RemovalCause.SIZE, lastEntry.weight);
+            removalListener.onRemoval(lastEntry.key, lastEntry.value, RemovalCause.SIZE);
+        }
+    }
+}
+
+class LruEvictionStrategy<T> implements EvictionStrategy<T> {
+    private final TreeSet<CacheEntry<T>> orderedEntries;
+    private final Map<String, CacheEntry<T>> keyLookup;
+    private final Long expiration;
+    private int operationOrder = 0;
+    private final TimerWheel expirationWheel;
+    private Weigher<T> weigher = (key, value) -> 1;
+    private long maximumWeight;
+    private long totalWeight;
+    private RemovalListener<T> removalListener = (key, value, cause) -> { };
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    LruEvictionStrategy(final Integer capacity, final Long cacheEvictDuration) {
+        this.maximumWeight = capacity;
+        this.orderedEntries = new TreeSet<>();
+        this.keyLookup = new TreeMap<>();
+        this.expiration = cacheEvictDuration;
+        this.expirationWheel = new TimerWheel(System.currentTimeMillis());
+    }
+
+    private void resetEntryToBegin(final String key) {
+        final var olderEntry = keyLookup.get(key);
+        final var newEntry = new CacheEntry<>(
+            key, olderEntry.value, operationOrder, olderEntry.expirationTime, olderEntry.weight
+        );
+        orderedEntries.remove(olderEntry);
+        orderedEntries.add(newEntry);
+        keyLookup.replace(key, newEntry);
+    } // try considering making point in time updates instead of adding and removing
+
+    private void resetEntryToBegin(final String key, final T newValue, final long newExpirationTime) {
+        final var olderEntry = keyLookup.get(key);
+        final var newEntry = new CacheEntry<>(
+            key, newValue, operationOrder, newExpirationTime, weigher.weigh(key, newValue)
+        );
+
+        totalWeight += newEntry.weight - olderEntry.weight;
+        orderedEntries.remove(olderEntry);
+        orderedEntries.add(newEntry);
+        keyLookup.replace(key, newEntry);
+        expirationWheel.schedule(key, newExpirationTime);
+    }
+
+    private void evictRetiredEntry(final String key) {
+        final var retiredEntry = keyLookup.remove(key);
+
+        orderedEntries.remove(retiredEntry);
+        totalWeight -= retiredEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPIRED, retiredEntry.weight);
+        removalListener.onRemoval(key, retiredEntry.value, RemovalCause.EXPIRED);
+    }
+
+    @Override
+    public T get(String key) {
+        return read(key, System.currentTimeMillis());
+    }
+
+    private T read(final String key, final long now) {
+        final var retrievedEntry = keyLookup.get(key);
+
+        if (key == null || retrievedEntry == null) {
+            return null;
+        }
+        if (retrievedEntry.isExpired(now)) {
+            orderedEntries.remove(retrievedEntry);
+            keyLookup.remove(key);
+            expirationWheel.cancel(key);
+            totalWeight -= retrievedEntry.weight;
+            statsCounter.recordEviction(RemovalCause.EXPIRED, retrievedEntry.weight);
+            removalListener.onRemoval(key, retrievedEntry.value, RemovalCause.EXPIRED);
+
+            return null;
+        }
+
+        operationOrder += 1;
+        resetEntryToBegin(key);
+
+        return retrievedEntry.value;
+    }
+
+    public void put(final String key, final T newValue) {
+        put(key, newValue, this.expiration);
+    }
+
+    @Override
+    public void put(final String key, final T newValue, final Long ttl) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictRetiredEntry);
+        write(key, newValue, now + ttl);
+        evictOverweight();
+    }
+
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var now = System.currentTimeMillis();
+        final var presentEntries = new HashMap<String, T>();
+
+        for (final var key : keys) {
+            final var value = read(key, now);
+
+            if (value != null) {
+                presentEntries.put(key, value);
+            }
+        }
+        return presentEntries;
+    }
+
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictRetiredEntry);
+        entries.forEach((key, value) -> write(key, value, now + this.expiration));
+        evictOverweight();
+    }
+
+    private void write(final String key, final T newValue, final long newExpirationTime) {
+        operationOrder += 1;
+
+        if (!keyLookup.containsKey(key)) {
+            final var newCacheEntry = new CacheEntry<T>(
+                key, newValue, operationOrder, newExpirationTime, weigher.weigh(key, newValue));
+
+            orderedEntries.add(newCacheEntry);
+            keyLookup.put(key, newCacheEntry);
+            totalWeight += newCacheEntry.weight;
+            expirationWheel.schedule(key, newCacheEntry.expirationTime);
+        } else {
+            resetEntryToBegin(key, newValue, newExpirationTime);
+        }
+    }
+
+    private void evictOverweight() {
+        while (totalWeight > maximumWeight && !orderedEntries.isEmpty()) {
+            final var lastEntry = orderedEntries.pollLast();
+
+            keyLookup.remove(lastEntry.key);
+            expirationWheel.cancel(lastEntry.key);
+            totalWeight -= lastEntry.weight;
+            statsCounter.recordEviction(RemovalCause.SIZE, lastEntry.weight);
+            removalListener.onRemoval(lastEntry.key, lastEntry.value, RemovalCause.SIZE);
+        }
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+    }
+
+    @Override
+    public long weight() {
+        return totalWeight;
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        final var invalidatedEntry = key == null ? null : keyLookup.remove(key);
+
+        if (invalidatedEntry == null) {
+            return;
+        }
+        orderedEntries.remove(invalidatedEntry);
+        expirationWheel.cancel(key);
+        totalWeight -= invalidatedEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPLICIT, invalidatedEntry.weight);
+        removalListener.onRemoval(key, invalidatedEntry.value, RemovalCause.EXPLICIT);
+    }
+
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        final var now = System.currentTimeMillis();
+        final var entries = new ArrayList<SnapshotEntry<T>>(orderedEntries.size());
+
+        for (final var entry : orderedEntries.descendingSet()) {
+            if (!entry.isExpired(now)) {
+                entries.add(new SnapshotEntry<>(entry.key, entry.value, entry.expirationTime - now, 1L));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var now = System.currentTimeMillis();
+
+        for (final var entry : entries) {
+            if (!keyLookup.containsKey(entry.key)) {
+                write(entry.key, entry.value, now + entry.remainingTtl);
+            }
+        }
+        evictOverweight();
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return EvictionPolicy.LRU;
+    }
+}
+
+class LinkedLruEvictionStrategy<T> implements EvictionStrategy<T> {
+    private final Map<String, LinkedCacheEntry<T>> keyLookup;
+    // sentinel: head.next is the most recently used entry, head.previous the least
+    private final LinkedCacheEntry<T> head;
+    private final Long expiration;
+    private final TimerWheel expirationWheel;
+    private Weigher<T> weigher = (key, value) -> 1;
+    private long maximumWeight;
+    private long totalWeight;
+    private RemovalListener<T> removalListener = (key, value, cause) -> { };
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    LinkedLruEvictionStrategy(final Integer capacity, final Long expiration) {
+        this.maximumWeight = capacity;
+        this.expiration = expiration;
+        this.keyLookup = new HashMap<>();
+        this.expirationWheel = new TimerWheel(System.currentTimeMillis());
+        this.head = new LinkedCacheEntry<>(null, null, Long.MAX_VALUE);
+        this.head.next = head;
+        this.head.previous = head;
+    }
+
+    private void unlink(final LinkedCacheEntry<T> entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    private void linkFirst(final LinkedCacheEntry<T> entry) {
+        entry.previous = head;
+        entry.next = head.next;
+        head.next.previous = entry;
+        head.next = entry;
+    }
+
+    private void moveToFront(final LinkedCacheEntry<T> entry) {
+        if (head.next == entry) {
+            return;
+        }
+        unlink(entry);
+        linkFirst(entry);
+    }
+
+    private void evictLeastRecent() {
+        final var eldest = head.previous;
+
+        if (eldest == head) {
+            return;
+        }
+        unlink(eldest);
+        keyLookup.remove(eldest.key);
+        expirationWheel.cancel(eldest.key);
+        totalWeight -= eldest.weight;
+        statsCounter.recordEviction(RemovalCause.SIZE, eldest.weight);
+        removalListener.onRemoval(eldest.key, eldest.value, RemovalCause.SIZE);
+    }
+
+    @Override
+    public T get(final String key) {
+        return read(key, System.currentTimeMillis());
+    }
+
+    private T read(final String key, final long now) {
+        if (key == null) {
+            return null;
+        }
+        final var retrievedEntry = keyLookup.get(key);
+
+        if (retrievedEntry == null) {
+            return null;
+        }
+        if (retrievedEntry.isExpired(now)) {
+            unlink(retrievedEntry);
+            keyLookup.remove(key);
+            expirationWheel.cancel(key);
+            totalWeight -= retrievedEntry.weight;
+            statsCounter.recordEviction(RemovalCause.EXPIRED, retrievedEntry.weight);
+            removalListener.onRemoval(key, retrievedEntry.value, RemovalCause.EXPIRED);
+
+            return null;
+        }
+
+        moveToFront(retrievedEntry);
+
+        return retrievedEntry.value;
+    }
+
+    private void evictExpired(final String key) {
+        final var expiredEntry = keyLookup.remove(key);
+
+        unlink(expiredEntry);
+        totalWeight -= expiredEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPIRED, expiredEntry.weight);
+        removalListener.onRemoval(key, expiredEntry.value, RemovalCause.EXPIRED);
+    }
+
+    @Override
+    public void put(final String key, final T newValue) {
+        put(key, newValue, this.expiration);
+    }
+
+    @Override
+    public void put(final String key, final T newValue, final Long ttl) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpired);
+        write(key, newValue, now + ttl);
+        evictOverweight();
+    }
+
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var now = System.currentTimeMillis();
+        final var presentEntries = new HashMap<String, T>();
+
+        for (final var key : keys) {
+            final var value = read(key, now);
+
+            if (value != null) {
+                presentEntries.put(key, value);
+            }
+        }
+        return presentEntries;
+    }
+
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpired);
+        entries.forEach((key, value) -> write(key, value, now + this.expiration));
+        evictOverweight();
+    }
+
+    private void write(final String key, final T newValue, final long expirationTime) {
+        final var existingEntry = keyLookup.get(key);
+        final var newWeight = weigher.weigh(key, newValue);
+
+        if (existingEntry != null) {
+            totalWeight += newWeight - existingEntry.weight;
+            existingEntry.value = newValue;
+            existingEntry.weight = newWeight;
+            existingEntry.expirationTime = expirationTime;
+            moveToFront(existingEntry);
+            expirationWheel.schedule(key, expirationTime);
+        } else {
+            final var newEntry = new LinkedCacheEntry<>(key, newValue, expirationTime);
+
+            newEntry.weight = newWeight;
+            linkFirst(newEntry);
+            keyLookup.put(key, newEntry);
+            totalWeight += newWeight;
+            expirationWheel.schedule(key, expirationTime);
+        }
+    }
+
+    private void evictOverweight() {
+        while (totalWeight > maximumWeight && !keyLookup.isEmpty()) {
+            evictLeastRecent();
+        }
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+    }
+
+    @Override
+    public long weight() {
+        return totalWeight;
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        final var invalidatedEntry = keyLookup.remove(key);
+
+        if (invalidatedEntry == null) {
+            return;
+        }
+        unlink(invalidatedEntry);
+        expirationWheel.cancel(key);
+        totalWeight -= invalidatedEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPLICIT, invalidatedEntry.weight);
+        removalListener.onRemoval(key, invalidatedEntry.value, RemovalCause.EXPLICIT);
+    }
+
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        final var now = System.currentTimeMillis();
+        final var entries = new ArrayList<SnapshotEntry<T>>(keyLookup.size());
+
+        for (var entry = head.previous; entry != head; entry = entry.previous) {
+            if (!entry.isExpired(now)) {
+                entries.add(new SnapshotEntry<>(entry.key, entry.value, entry.expirationTime - now, 1L));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var now = System.currentTimeMillis();
+
+        for (final var entry : entries) {
+            if (!keyLookup.containsKey(entry.key)) {
+                write(entry.key, entry.value, now + entry.remainingTtl);
+            }
+        }
+        evictOverweight();
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return EvictionPolicy.LINKED_LRU;
+    }
+}
+
+class BucketLfuEvictionStrategy<T> implements EvictionStrategy<T> {
+    private final Map<String, BucketLfuEntry<T>> keyLookup;
+    // sentinel of the bucket list, buckets are kept in ascending frequency
+    private final LfuFrequencyBucket<T> buckets;
+    private final Long expiration;
+    private final Long agingWindow;
+    private long nextAgingTime;
+    private final TimerWheel expirationWheel;
+    private Weigher<T> weigher = (key, value) -> 1;
+    private long maximumWeight;
+    private long totalWeight;
+    private RemovalListener<T> removalListener = (key, value, cause) -> { };
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    BucketLfuEvictionStrategy(final Integer capacity, final Long expiration) {
+        this(capacity, expiration, 0L);
+    }
+
+    // agingWindow > 0 halves every frequency once per window so stale hot keys can be evicted
+    BucketLfuEvictionStrategy(final Integer capacity, final Long expiration, final Long agingWindow) {
+        this.maximumWeight = capacity;
+        this.expiration = expiration;
+        this.agingWindow = agingWindow;
+        this.keyLookup = new HashMap<>();
+        this.buckets = new LfuFrequencyBucket<>(0L);
+        this.buckets.next = buckets;
+        this.buckets.previous = buckets;
+        this.nextAgingTime = agingWindow > 0 ? System.currentTimeMillis() + agingWindow : Long.MAX_VALUE;
+        this.expirationWheel = new TimerWheel(System.currentTimeMillis());
+    }
+
+    private LfuFrequencyBucket<T> bucketAfter(final LfuFrequencyBucket<T> bucket, final long frequency) {
+        if (bucket.next != buckets && bucket.next.frequency == frequency) {
+            return bucket.next;
+        }
+        final var newBucket = new LfuFrequencyBucket<T>(frequency);
+
+        newBucket.previous = bucket;
+        newBucket.next = bucket.next;
+        bucket.next.previous = newBucket;
+        bucket.next = newBucket;
+
+        return newBucket;
+    }
+
+    private void unlinkBucket(final LfuFrequencyBucket<T> bucket) {
+        bucket.previous.next = bucket.next;
+        bucket.next.previous = bucket.previous;
+    }
+
+    private void detach(final BucketLfuEntry<T> entry) {
+        final var bucket = entry.bucket;
+
+        bucket.remove(entry);
+        if (bucket.isEmpty()) {
+            unlinkBucket(bucket);
+        }
+    }
+
+    private void incrementFrequency(final BucketLfuEntry<T> entry) {
+        final var currentBucket = entry.bucket;
+        final var targetBucket = bucketAfter(currentBucket, currentBucket.frequency + 1L);
+
+        currentBucket.remove(entry);
+        if (currentBucket.isEmpty()) {
+            unlinkBucket(currentBucket);
+        }
+        targetBucket.addFirst(entry);
+    }
+
+    // spared is the entry just written, it only goes once nothing else is left to evict
+    private void evictLeastFrequent(final BucketLfuEntry<T> spared) {
+        final var lowestBucket = buckets.next;
+
+        if (lowestBucket == buckets) {
+            return;
+        }
+        var victim = lowestBucket.leastRecent();
+
+        if (victim == spared && lowestBucket.next != buckets) {
+            victim = lowestBucket.next.leastRecent();
+        }
+
+        detach(victim);
+        keyLookup.remove(victim.key);
+        expirationWheel.cancel(victim.key);
+        totalWeight -= victim.weight;
+        statsCounter.recordEviction(RemovalCause.SIZE, victim.weight);
+        removalListener.onRemoval(victim.key, victim.value, RemovalCause.SIZE);
+    }
+
+    private void ageIfDue(final long now) {
+        if (now < nextAgingTime) {
+            return;
+        }
+        nextAgingTime = now + agingWindow;
+
+        var bucket = buckets.next;
+        while (bucket != buckets) {
+            final var nextBucket = bucket.next;
+            final var halvedFrequency = Math.max(1L, bucket.frequency >> 1);
+            final var lowerBucket = bucket.previous;
+
+            if (lowerBucket != buckets && lowerBucket.frequency == halvedFrequency) {
+                // merged entries were hotter than the lower bucket, so they go in front of it
+                var entry = bucket.leastRecent();
+                while (entry != null) {
+                    bucket.remove(entry);
+                    lowerBucket.addFirst(entry);
+                    entry = bucket.leastRecent();
+                }
+                unlinkBucket(bucket);
+            } else {
+                bucket.frequency = halvedFrequency;
+            }
+            bucket = nextBucket;
+        }
+    }
+
+    @Override
+    public T get(final String key) {
+        return read(key, System.currentTimeMillis());
+    }
+
+    private T read(final String key, final long now) {
+        if (key == null) {
+            return null;
+        }
+        final var retrievedEntry = keyLookup.get(key);
+
+        if (retrievedEntry == null) {
+            return null;
+        }
+        if (retrievedEntry.isExpired(now)) {
+            detach(retrievedEntry);
+            keyLookup.remove(key);
+            expirationWheel.cancel(key);
+            totalWeight -= retrievedEntry.weight;
+            statsCounter.recordEviction(RemovalCause.EXPIRED, retrievedEntry.weight);
+            removalListener.onRemoval(key, retrievedEntry.value, RemovalCause.EXPIRED);
+
+            return null;
+        }
+
+        ageIfDue(now);
+        incrementFrequency(retrievedEntry);
+
+        return retrievedEntry.value;
+    }
+
+    private void evictExpired(final String key) {
+        final var expiredEntry = keyLookup.remove(key);
+
+        detach(expiredEntry);
+        totalWeight -= expiredEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPIRED, expiredEntry.weight);
+        removalListener.onRemoval(key, expiredEntry.value, RemovalCause.EXPIRED);
+    }
+
+    @Override
+    public void put(final String key, final T value) {
+        put(key, value, this.expiration);
+    }
+
+    @Override
+    public void put(final String key, final T value, final Long ttl) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpired);
+        ageIfDue(now);
+        write(key, value, now + ttl);
+        evictOverweight(keyLookup.get(key));
+    }
+
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var now = System.currentTimeMillis();
+        final var presentEntries = new HashMap<String, T>();
+
+        for (final var key : keys) {
+            final var value = read(key, now);
+
+            if (value != null) {
+                presentEntries.put(key, value);
+            }
+        }
+        return presentEntries;
+    }
+
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpired);
+        ageIfDue(now);
+        entries.forEach((key, value) -> write(key, value, now + this.expiration));
+        evictOverweight(null);
+    }
+
+    private void write(final String key, final T value, final long expirationTime) {
+        final var existingEntry = keyLookup.get(key);
+        final var newWeight = weigher.weigh(key, value);
+
+        if (existingEntry != null) {
+            totalWeight += newWeight - existingEntry.weight;
+            existingEntry.value = value;
+            existingEntry.weight = newWeight;
+            existingEntry.expirationTime = expirationTime;
+            incrementFrequency(existingEntry);
+            expirationWheel.schedule(key, expirationTime);
+            return;
+        }
+        final var newEntry = new BucketLfuEntry<>(key, value, expirationTime);
+
+        newEntry.weight = newWeight;
+        bucketAfter(buckets, 1L).addFirst(newEntry);
+        keyLookup.put(key, newEntry);
+        totalWeight += newWeight;
+        expirationWheel.schedule(key, expirationTime);
+    }
+
+    private void evictOverweight(final BucketLfuEntry<T> writtenEntry) {
+        while (totalWeight > maximumWeight && !keyLookup.isEmpty()) {
+            evictLeastFrequent(writtenEntry);
+        }
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+    }
+
+    @Override
+    public long weight() {
+        return totalWeight;
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        final var invalidatedEntry = keyLookup.remove(key);
+
+        if (invalidatedEntry == null) {
+            return;
+        }
+        detach(invalidatedEntry);
+        expirationWheel.cancel(key);
+        totalWeight -= invalidatedEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPLICIT, invalidatedEntry.weight);
+        removalListener.onRemoval(key, invalidatedEntry.value, RemovalCause.EXPLICIT);
+    }
+
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        final var now = System.currentTimeMillis();
+        final var entries = new ArrayList<SnapshotEntry<T>>(keyLookup.size());
+
+        for (var bucket = buckets.next; bucket != buckets; bucket = bucket.next) {
+            for (var entry = bucket.head.previous; entry != bucket.head; entry = entry.previous) {
+                if (!entry.isExpired(now)) {
+                    entries.add(new SnapshotEntry<>(entry.key, entry.value, entry.expirationTime - now,
+                        bucket.frequency));
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var now = System.currentTimeMillis();
+
+        for (final var entry : entries) {
+            if (keyLookup.containsKey(entry.key)) {
+                continue;
+            }
+            final var frequency = Math.max(1L, entry.frequency);
+            // snapshots come in ascending frequency, so the right bucket is almost always the last one
+            var bucket = buckets.previous;
+            while (bucket != buckets && bucket.frequency > frequency) {
+                bucket = bucket.previous;
+            }
+            final var restoredEntry = new BucketLfuEntry<>(entry.key, entry.value, now + entry.remainingTtl);
+
+            restoredEntry.weight = weigher.weigh(entry.key, entry.value);
+            (bucket != buckets && bucket.frequency == frequency ? bucket : bucketAfter(bucket, frequency))
+                .addFirst(restoredEntry);
+            keyLookup.put(entry.key, restoredEntry);
+            totalWeight += restoredEntry.weight;
+            expirationWheel.schedule(entry.key, restoredEntry.expirationTime);
+        }
+        evictOverweight(null);
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return EvictionPolicy.BUCKET_LFU;
+    }
+}
+
+class FifoEvictionStrategy<T> implements EvictionStrategy<T> {
+    private final TreeSet<CacheEntry<T>> orderedList;
+    private final Map<String, CacheEntry<T>> keyLookUp;
+    private final Long expiration;
+    private Integer operationOrder;
+    private final TimerWheel expirationWheel;
+    private Weigher<T> weigher = (key, value) -> 1;
+    private long maximumWeight;
+    private long totalWeight;
+    private RemovalListener<T> removalListener = (key, value, cause) -> { };
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    FifoEvictionStrategy(final Integer capacity, final Long expiration) {
+        this.operationOrder = 0;
+        this.expiration = expiration;
+        this.maximumWeight = capacity;
+        this.keyLookUp = new HashMap<>();
+        this.orderedList = new TreeSet<>();
+        this.expirationWheel = new TimerWheel(System.currentTimeMillis());
+    }
+
+    private void evictExpiredEntry(final String key) {
+        final var expiredEntry = keyLookUp.remove(key);
+
+        orderedList.remove(expiredEntry);
+        totalWeight -= expiredEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPIRED, expiredEntry.weight);
+        removalListener.onRemoval(key, expiredEntry.value, RemovalCause.EXPIRED);
+    }
+
+    @Override
+    public T get(final String key) {
+        final CacheEntry<T> maybeEntry = keyLookUp.get(key);
+        if (maybeEntry == null || maybeEntry.isExpired()) {
+            return null;
+        }
+
+        return maybeEntry.value;
+    }
+
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var now = System.currentTimeMillis();
+        final var presentEntries = new HashMap<String, T>();
+
+        for (final var key : keys) {
+            final CacheEntry<T> maybeEntry = keyLookUp.get(key);
+
+            if (maybeEntry != null && !maybeEntry.isExpired(now)) {
+                presentEntries.put(key, maybeEntry.value);
+            }
+        }
+        return presentEntries;
+    }
+
+    @Override
+    public void put(final String key, final T newValue) {
+        put(key, newValue, this.expiration);
+    }
+
+    @Override
+    public void put(final String key, final T newValue, final Long ttl) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpiredEntry);
+        write(key, newValue, now + ttl);
+        evictOverweight();
+    }
+
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpiredEntry);
+        entries.forEach((key, value) -> write(key, value, now + this.expiration));
+        evictOverweight();
+    }
+
+    private void write(final String key, final T newValue, final long expirationTime) {
+        operationOrder += 1;
+        final var cachedEntry = new CacheEntry<>(key, newValue, operationOrder, expirationTime,
+            weigher.weigh(key, newValue));
+
+        if (keyLookUp.containsKey(key)) {
+            final var replacedEntry = keyLookUp.remove(key);
+
+            orderedList.remove(replacedEntry);
+            totalWeight -= replacedEntry.weight;
+        }
+
+        orderedList.add(cachedEntry);
+        keyLookUp.put(key, cachedEntry);
+        totalWeight += cachedEntry.weight;
+        expirationWheel.schedule(key, cachedEntry.expirationTime);
+    }
+
+    private void evictOverweight() {
+        while (totalWeight > maximumWeight && !orderedList.isEmpty()) {
+            final var toBeRemoved = orderedList.pollLast();
+
+            keyLookUp.remove(toBeRemoved.key);
+            expirationWheel.cancel(toBeRemoved.key);
+            totalWeight -= toBeRemoved.weight;
+            statsCounter.recordEviction(RemovalCause.SIZE, toBeRemoved.weight);
+            removalListener.onRemoval(toBeRemoved.key, toBeRemoved.value, RemovalCause.SIZE);
+        }
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+    }
+
+    @Override
+    public long weight() {
+        return totalWeight;
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        final var invalidatedEntry = keyLookUp.remove(key);
+
+        if (invalidatedEntry == null) {
+            return;
+        }
+        orderedList.remove(invalidatedEntry);
+        expirationWheel.cancel(key);
+        totalWeight -= invalidatedEntry.weight;
+        statsCounter.recordEviction(RemovalCause.EXPLICIT, invalidatedEntry.weight);
+        removalListener.onRemoval(key, invalidatedEntry.value, RemovalCause.EXPLICIT);
+    }
+
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        final var now = System.currentTimeMillis();
+        final var entries = new ArrayList<SnapshotEntry<T>>(orderedList.size());
+
+        for (final var entry : orderedList.descendingSet()) {
+            if (!entry.isExpired(now)) {
+                entries.add(new SnapshotEntry<>(entry.key, entry.value, entry.expirationTime - now, 1L));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var now = System.currentTimeMillis();
+
+        for (final var entry : entries) {
+            if (!keyLookUp.containsKey(entry.key)) {
+                write(entry.key, entry.value, now + entry.remainingTtl);
+            }
+        }
+        evictOverweight();
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return EvictionPolicy.FIFO;
+    }
+}
+
+// W-TinyLFU: new entries land in a small LRU window, and a window victim only enters the segmented LRU
+// main space if the sketch says it is more popular than the main space victim it would displace
+class TinyLfuEvictionStrategy<T> implements EvictionStrategy<T> {
+    private final Map<String, TinyLfuEntry<T>> keyLookup;
+    private final TinyLfuQueue<T> window;
+    private final TinyLfuQueue<T> probation;
+    private final TinyLfuQueue<T> protectedQueue;
+    private final FrequencySketch sketch;
+    private final TimerWheel expirationWheel;
+    private final Long expiration;
+    private Weigher<T> weigher = (key, value) -> 1;
+    private long maximumWeight;
+    private long windowMaximumWeight;
+    private long protectedMaximumWeight;
+    private RemovalListener<T> removalListener = (key, value, cause) -> { };
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    TinyLfuEvictionStrategy(final Integer capacity, final Long expiration) {
+        this.expiration = expiration;
+        this.keyLookup = new HashMap<>();
+        this.window = new TinyLfuQueue<>(TinyLfuRegion.WINDOW);
+        this.probation = new TinyLfuQueue<>(TinyLfuRegion.PROBATION);
+        this.protectedQueue = new TinyLfuQueue<>(TinyLfuRegion.PROTECTED);
+        this.sketch = new FrequencySketch(capacity);
+        this.expirationWheel = new TimerWheel(System.currentTimeMillis());
+        resize(capacity);
+    }
+
+    private void resize(final long newMaximumWeight) {
+        this.maximumWeight = newMaximumWeight;
+        this.windowMaximumWeight = Math.max(1L, newMaximumWeight / 100);
+        this.protectedMaximumWeight = (long) ((newMaximumWeight - windowMaximumWeight) * 0.8);
+    }
+
+    private long totalWeight() {
+        return window.weight + probation.weight + protectedQueue.weight;
+    }
+
+    private TinyLfuQueue<T> queueOf(final TinyLfuEntry<T> entry) {
+        if (entry.region == TinyLfuRegion.WINDOW) {
+            return window;
+        } else if (entry.region == TinyLfuRegion.PROBATION) {
+            return probation;
+        }
+        return protectedQueue;
+    }
+
+    private void discard(final TinyLfuEntry<T> entry, final RemovalCause cause) {
+        queueOf(entry).remove(entry);
+        keyLookup.remove(entry.key);
+        if (cause != RemovalCause.EXPIRED) {
+            expirationWheel.cancel(entry.key);
+        }
+        statsCounter.recordEviction(cause, entry.weight);
+        removalListener.onRemoval(entry.key, entry.value, cause);
+    }
+
+    private void evictExpired(final String key) {
+        discard(keyLookup.get(key), RemovalCause.EXPIRED);
+    }
+
+    private void onHit(final TinyLfuEntry<T> entry) {
+        if (entry.region != TinyLfuRegion.PROBATION) {
+            queueOf(entry).moveToFront(entry);
+            return;
+        }
+        probation.remove(entry);
+        protectedQueue.addFirst(entry);
+
+        while (protectedQueue.weight > protectedMaximumWeight && protectedQueue.leastRecent() != entry) {
+            final var demoted = protectedQueue.leastRecent();
+
+            protectedQueue.remove(demoted);
+            probation.addFirst(demoted);
+        }
+    }
+
+    private void evictIfNeeded() {
+        while (window.weight > windowMaximumWeight) {
+            final var overflow = window.leastRecent();
+
+            window.remove(overflow);
+            probation.addFirst(overflow);
+        }
+
+        while (totalWeight() > maximumWeight) {
+            // the newest arrival in probation competes with the least recent one
+            final var candidate = probation.mostRecent();
+
+            if (candidate == null) {
+                final var victim = protectedQueue.leastRecent() != null
+                    ? protectedQueue.leastRecent()
+                    : window.leastRecent();
+
+                discard(victim, RemovalCause.SIZE);
+                continue;
+            }
+            var victim = probation.leastRecent();
+
+            if (victim == candidate) {
+                victim = protectedQueue.leastRecent();
+            }
+            if (victim == null) {
+                discard(candidate, RemovalCause.SIZE);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                discard(victim, RemovalCause.SIZE);
+            } else {
+                discard(candidate, RemovalCause.SIZE);
+            }
+        }
+    }
+
+    @Override
+    public T get(final String key) {
+        return read(key, System.currentTimeMillis());
+    }
+
+    private T read(final String key, final long now) {
+        if (key == null) {
+            return null;
+        }
+        sketch.increment(key);
+        final var retrievedEntry = keyLookup.get(key);
+
+        if (retrievedEntry == null) {
+            return null;
+        }
+        if (retrievedEntry.isExpired(now)) {
+            discard(retrievedEntry, RemovalCause.EXPIRED);
+            expirationWheel.cancel(key);
+
+            return null;
+        }
+
+        onHit(retrievedEntry);
+
+        return retrievedEntry.value;
+    }
+
+    @Override
+    public void put(final String key, final T value) {
+        put(key, value, this.expiration);
+    }
+
+    @Override
+    public void put(final String key, final T value, final Long ttl) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpired);
+        write(key, value, now + ttl);
+        evictIfNeeded();
+    }
+
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var now = System.currentTimeMillis();
+        final var presentEntries = new HashMap<String, T>();
+
+        for (final var key : keys) {
+            final var value = read(key, now);
+
+            if (value != null) {
+                presentEntries.put(key, value);
+            }
+        }
+        return presentEntries;
+    }
+
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpired);
+        entries.forEach((key, value) -> write(key, value, now + this.expiration));
+        evictIfNeeded();
+    }
+
+    private void write(final String key, final T value, final long expirationTime) {
+        final var existingEntry = keyLookup.get(key);
+
+        if (existingEntry != null) {
+            final var queue = queueOf(existingEntry);
+
+            sketch.increment(key);
+            queue.remove(existingEntry);
+            existingEntry.value = value;
+            existingEntry.weight = weigher.weigh(key, value);
+            existingEntry.expirationTime = expirationTime;
+            queue.addFirst(existingEntry);
+            onHit(existingEntry);
+            expirationWheel.schedule(key, expirationTime);
+            return;
+        }
+
+        final var newEntry = new TinyLfuEntry<>(key, value, expirationTime);
+
+        newEntry.weight = weigher.weigh(key, value);
+        window.addFirst(newEntry);
+        keyLookup.put(key, newEntry);
+        expirationWheel.schedule(key, expirationTime);
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        this.weigher = weigher;
+        resize(maximumWeight);
+    }
+
+    @Override
+    public long weight() {
+        return totalWeight();
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        final var invalidatedEntry = keyLookup.get(key);
+
+        if (invalidatedEntry != null) {
+            discard(invalidatedEntry, RemovalCause.EXPLICIT);
+        }
+    }
+
+    // probation, then protected, then window, each from its least recent entry; the frequency is the sketch estimate
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        final var now = System.currentTimeMillis();
+        final var entries = new ArrayList<SnapshotEntry<T>>(keyLookup.size());
+        final Consumer<TinyLfuEntry<T>> collect = entry -> {
+            if (!entry.isExpired(now)) {
+                entries.add(new SnapshotEntry<>(entry.key, entry.value, entry.expirationTime - now,
+                    sketch.frequency(entry.key)));
+            }
+        };
+
+        probation.forEachFromLeastRecent(collect);
+        protectedQueue.forEachFromLeastRecent(collect);
+        window.forEachFromLeastRecent(collect);
+        return entries;
+    }
+
+    // the sketch is warmed back up to each entry's frequency, the regions are then refilled through admission
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var now = System.currentTimeMillis();
+
+        for (final var entry : entries) {
+            if (keyLookup.containsKey(entry.key)) {
+                continue;
+            }
+            // the sketch's 4 bit counters saturate at 15, increments past that change nothing
+            for (long i = 0; i < Math.min(entry.frequency, 15L); i += 1) {
+                sketch.increment(entry.key);
+            }
+            write(entry.key, entry.value, now + entry.remainingTtl);
+        }
+        evictIfNeeded();
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return EvictionPolicy.TINY_LFU;
+    }
+}
+
+// keeps serialized values in direct ByteBuffer slabs carved into size classes, only the index stays on heap;
+// eviction is LRU within the size class that needs room, as in memcached
+class OffHeapEvictionStrategy<T> implements EvictionStrategy<T> {
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+
+    private final Map<String, OffHeapIndexEntry> keyLookup;
+    private final List<ByteBuffer> slabs;
+    private final List<Integer> slabOwners;
+    private final SlabClass[] slabClasses;
+    private final ValueSerializer<T> serializer;
+    private final TimerWheel expirationWheel;
+    private final Long expiration;
+    private final long capacityInBytes;
+    private final int slabSize;
+    private long allocatedBytes;
+    // without a weigher an entry weighs its serialized length, so the weight is the bytes stored
+    private Weigher<T> weigher;
+    private long maximumWeight = Long.MAX_VALUE;
+    private long totalWeight;
+    // null unless someone listens, so evictions do not pay for decoding the value
+    private RemovalListener<T> removalListener;
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    OffHeapEvictionStrategy(final Long capacityInBytes, final Long expiration,
+                            final ValueSerializer<T> serializer) {
+        this(capacityInBytes, expiration, serializer, 1 << 20);
+    }
+
+    OffHeapEvictionStrategy(final Long capacityInBytes, final Long expiration,
+                            final ValueSerializer<T> serializer, final Integer slabSize) {
+        this.capacityInBytes = capacityInBytes;
+        this.expiration = expiration;
+        this.serializer = serializer;
+        this.slabSize = (int) Math.min(slabSize, capacityInBytes);
+        this.keyLookup = new HashMap<>();
+        this.slabs = new ArrayList<>();
+        this.slabOwners = new ArrayList<>();
+        this.expirationWheel = new TimerWheel(System.currentTimeMillis());
+
+        final var chunkSizes = new ArrayList<Integer>();
+        var chunkSize = MIN_CHUNK_SIZE;
+        while (chunkSize < this.slabSize) {
+            chunkSizes.add(chunkSize);
+            chunkSize = (int) Math.ceil(chunkSize * GROWTH_FACTOR / 8) * 8;
+        }
+        chunkSizes.add(this.slabSize);
+
+        this.slabClasses = new SlabClass[chunkSizes.size()];
+        for (int i = 0; i < slabClasses.length; i += 1) {
+            slabClasses[i] = new SlabClass(chunkSizes.get(i));
+        }
+    }
+
+    private int slabClassFor(final int length) {
+        for (int i = 0; i < slabClasses.length; i += 1) {
+            if (slabClasses[i].chunkSize >= length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void assignSlab(final int slabIndex, final int classIndex) {
+        final var slabClass = slabClasses[classIndex];
+
+        slabOwners.set(slabIndex, classIndex);
+        slabClass.slabCount += 1;
+        for (int offset = 0; offset + slabClass.chunkSize <= slabSize; offset += slabClass.chunkSize) {
+            slabClass.releaseChunk(SlabClass.address(slabIndex, offset));
+        }
+    }
+
+    private boolean growSlabClass(final int classIndex) {
+        if (allocatedBytes + slabSize > capacityInBytes) {
+            return false;
+        }
+        slabs.add(ByteBuffer.allocateDirect(slabSize));
+        slabOwners.add(classIndex);
+        allocatedBytes += slabSize;
+        assignSlab(slabs.size() - 1, classIndex);
+        return true;
+    }
+
+    // once the byte budget is spent, a class without slabs takes one over from the class holding the most,
+    // evicting everything that lived in it
+    private boolean reassignSlab(final int classIndex) {
+        var donorIndex = -1;
+
+        for (int i = 0; i < slabClasses.length; i += 1) {
+            if (i != classIndex && slabClasses[i].slabCount > 0
+                && (donorIndex < 0 || slabClasses[i].slabCount > slabClasses[donorIndex].slabCount)) {
+                donorIndex = i;
+            }
+        }
+        if (donorIndex < 0) {
+            return false;
+        }
+        final var donor = slabClasses[donorIndex];
+        final var donorVictim = donor.leastRecent();
+        final var slabIndex = donorVictim != null ? donorVictim.slabIndex : slabOwners.indexOf(donorIndex);
+
+        var entry = donor.head.next;
+        while (entry != donor.head) {
+            final var nextEntry = entry.next;
+
+            if (entry.slabIndex == slabIndex) {
+                discard(entry, RemovalCause.SIZE);
+            }
+            entry = nextEntry;
+        }
+        donor.dropChunksOf(slabIndex);
+        donor.slabCount -= 1;
+        assignSlab(slabIndex, classIndex);
+        return true;
+    }
+
+    private T readValue(final OffHeapIndexEntry entry) {
+        return serializer.deserialize(slabs.get(entry.slabIndex).slice(entry.offset, entry.length));
+    }
+
+    private void discard(final OffHeapIndexEntry entry, final RemovalCause cause) {
+        final var slabClass = slabClasses[entry.slabClass];
+
+        slabClass.unlink(entry);
+        slabClass.releaseChunk(SlabClass.address(entry.slabIndex, entry.offset));
+        keyLookup.remove(entry.key);
+        totalWeight -= entry.weight;
+        if (cause != RemovalCause.EXPIRED) {
+            expirationWheel.cancel(entry.key);
+        }
+        statsCounter.recordEviction(cause, entry.weight);
+        if (removalListener != null) {
+            removalListener.onRemoval(entry.key, readValue(entry), cause);
+        }
+    }
+
+    private void evictExpired(final String key) {
+        discard(keyLookup.get(key), RemovalCause.EXPIRED);
+    }
+
+    // frees a chunk of the given class by allocating a new slab or evicting that class's LRU entry
+    private boolean reserveChunk(final int classIndex) {
+        final var slabClass = slabClasses[classIndex];
+
+        if (slabClass.hasFreeChunk() || growSlabClass(classIndex)) {
+            return true;
+        }
+        final var victim = slabClass.leastRecent();
+
+        if (victim == null) {
+            return reassignSlab(classIndex);
+        }
+        discard(victim, RemovalCause.SIZE);
+        return true;
+    }
+
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public T get(final String key) {
+        return read(key, System.currentTimeMillis());
+    }
+
+    private T read(final String key, final long now) {
+        if (key == null) {
+            return null;
+        }
+        final var retrievedEntry = keyLookup.get(key);
+
+        if (retrievedEntry == null) {
+            return null;
+        }
+        if (retrievedEntry.isExpired(now)) {
+            discard(retrievedEntry, RemovalCause.EXPIRED);
+            expirationWheel.cancel(key);
+
+            return null;
+        }
+
+        final var slabClass = slabClasses[retrievedEntry.slabClass];
+
+        slabClass.unlink(retrievedEntry);
+        slabClass.linkFirst(retrievedEntry);
+
+        return readValue(retrievedEntry);
+    }
+
+    @Override
+    public void put(final String key, final T value) {
+        put(key, value, this.expiration);
+    }
+
+    @Override
+    public void put(final String key, final T value, final Long ttl) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpired);
+        write(key, value, now + ttl);
+    }
+
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var now = System.currentTimeMillis();
+        final var presentEntries = new HashMap<String, T>();
+
+        for (final var key : keys) {
+            final var value = read(key, now);
+
+            if (value != null) {
+                presentEntries.put(key, value);
+            }
+        }
+        return presentEntries;
+    }
+
+    // slab chunks are reserved per value, so a batch only shares the clock read and the wheel advance
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var now = System.currentTimeMillis();
+
+        expirationWheel.advance(now, this::evictExpired);
+        entries.forEach((key, value) -> write(key, value, now + this.expiration));
+    }
+
+    // a value that can't be stored is reported like an entry evicted for size right after being written
+    private void reject(final String key, final T value, final int weight) {
+        statsCounter.recordEviction(RemovalCause.SIZE, weight);
+        if (removalListener != null) {
+            removalListener.onRemoval(key, value, RemovalCause.SIZE);
+        }
+    }
+
+    private void write(final String key, final T value, final long expirationTime) {
+        final var bytes = serializer.serialize(value);
+        final var weight = weigher == null ? bytes.length : weigher.weigh(key, value);
+        final var classIndex = slabClassFor(bytes.length);
+        final var existingEntry = keyLookup.get(key);
+
+        if (existingEntry != null) {
+            if (existingEntry.slabClass == classIndex) {
+                final var slabClass = slabClasses[classIndex];
+
+                slabs.get(existingEntry.slabIndex).put(existingEntry.offset, bytes);
+                totalWeight += weight - existingEntry.weight;
+                existingEntry.length = bytes.length;
+                existingEntry.weight = weight;
+                existingEntry.expirationTime = expirationTime;
+                slabClass.unlink(existingEntry);
+                slabClass.linkFirst(existingEntry);
+                expirationWheel.schedule(key, existingEntry.expirationTime);
+                evictOverweight(existingEntry);
+                return;
+            }
+        }
+
+        // larger than a slab, or no chunk could be freed; a value already cached under the key is kept
+        if (classIndex < 0 || !reserveChunk(classIndex)) {
+            reject(key, value, weight);
+            return;
+        }
+        final var slabClass = slabClasses[classIndex];
+        final var chunkAddress = slabClass.takeFreeChunk();
+
+        // the old chunk is only released once the new one is secured, unless reserving already evicted it
+        if (existingEntry != null && keyLookup.get(key) == existingEntry) {
+            final var existingClass = slabClasses[existingEntry.slabClass];
+
+            existingClass.unlink(existingEntry);
+            existingClass.releaseChunk(SlabClass.address(existingEntry.slabIndex, existingEntry.offset));
+            keyLookup.remove(key);
+            totalWeight -= existingEntry.weight;
+            expirationWheel.cancel(key);
+        }
+        final var slabIndex = (int) (chunkAddress >>> 32);
+        final var offset = (int) chunkAddress;
+        final var newEntry = new OffHeapIndexEntry(key, classIndex, slabIndex, offset, bytes.length, weight,
+            expirationTime);
+
+        slabs.get(slabIndex).put(offset, bytes);
+        slabClass.linkFirst(newEntry);
+        keyLookup.put(key, newEntry);
+        totalWeight += weight;
+        expirationWheel.schedule(key, newEntry.expirationTime);
+        evictOverweight(newEntry);
+    }
+
+    // the weight budget applies on top of the slab bytes; victims come from the written entry's class first,
+    // then from the largest chunks, and the entry just written only goes once nothing else is left
+    private void evictOverweight(final OffHeapIndexEntry writtenEntry) {
+        while (totalWeight > maximumWeight) {
+            discard(overweightVictim(writtenEntry), RemovalCause.SIZE);
+        }
+    }
+
+    private OffHeapIndexEntry overweightVictim(final OffHeapIndexEntry writtenEntry) {
+        if (writtenEntry != null) {
+            final var sameClassVictim = slabClasses[writtenEntry.slabClass].leastRecent();
+
+            if (sameClassVictim != null && sameClassVictim != writtenEntry) {
+                return sameClassVictim;
+            }
+        }
+        for (int i = slabClasses.length - 1; i >= 0; i -= 1) {
+            final var victim = slabClasses[i].leastRecent();
+
+            if (victim != null && victim != writtenEntry) {
+                return victim;
+            }
+        }
+        return writtenEntry;
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+        evictOverweight(null);
+    }
+
+    @Override
+    public long weight() {
+        return totalWeight;
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        final var invalidatedEntry = keyLookup.get(key);
+
+        if (invalidatedEntry != null) {
+            discard(invalidatedEntry, RemovalCause.EXPLICIT);
+        }
+    }
+
+    // slab classes evict independently, so each class is listed on its own from its least recent entry
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        final var now = System.currentTimeMillis();
+        final var entries = new ArrayList<SnapshotEntry<T>>(keyLookup.size());
+
+        for (final var slabClass : slabClasses) {
+            for (var entry = slabClass.head.previous; entry != slabClass.head; entry = entry.previous) {
+                if (!entry.isExpired(now)) {
+                    entries.add(new SnapshotEntry<>(entry.key, readValue(entry), entry.expirationTime - now, 1L));
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var now = System.currentTimeMillis();
+
+        for (final var entry : entries) {
+            if (!keyLookup.containsKey(entry.key)) {
+                write(entry.key, entry.value, now + entry.remainingTtl);
+            }
+        }
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return EvictionPolicy.OFF_HEAP_LRU;
+    }
+}
+
+// splits the key space into independently locked segments, each owning its own eviction bookkeeping
+class StripedEvictionStrategy<T> implements EvictionStrategy<T> {
+    private final EvictionStrategy<T>[] segments;
+    private final ReentrantLock[] locks;
+    private final int segmentMask;
+
+    // generic arrays can't be created, the raw one only ever holds strategies built by segmentFactory
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    StripedEvictionStrategy(final Integer capacity, final Integer concurrencyLevel,
+                            final IntFunction<EvictionStrategy<T>> segmentFactory) {
+        // never more segments than entries, so every segment holds at least one
+        var segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount * 2 <= capacity) {
+            segmentCount <<= 1;
+        }
+
+        this.segments = new EvictionStrategy[segmentCount];
+        this.locks = new ReentrantLock[segmentCount];
+        this.segmentMask = segmentCount - 1;
+
+        // the remainder goes one entry each to the first segments, so the capacities add up exactly
+        for (int i = 0; i < segmentCount; i += 1) {
+            segments[i] = segmentFactory.apply(capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0));
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    private int segmentFor(final String key) {
+        final var hash = key.hashCode();
+
+        return (hash ^ (hash >>> 16)) & segmentMask;
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return segments[0].policyType();
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        for (final var segment : segments) {
+            segment.setRemovalListener(listener);
+        }
+    }
+
+    // one counter shared by all segments, LongAdder already absorbs the concurrent updates
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        for (final var segment : segments) {
+            segment.setStatsCounter(statsCounter);
+        }
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        for (int i = 0; i < segments.length; i += 1) {
+            segments[i].setWeigher(weigher, maximumWeight / segments.length
+                + (i < maximumWeight % segments.length ? 1 : 0));
+        }
+    }
+
+    @Override
+    public long weight() {
+        var totalWeight = 0L;
+
+        for (int i = 0; i < segments.length; i += 1) {
+            locks[i].lock();
+            try {
+                totalWeight += segments[i].weight();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return totalWeight;
+    }
+
+    @Override
+    public T get(final String key) {
+        if (key == null) {
+            return null;
+        }
+        final var index = segmentFor(key);
+        final var lock = locks[index];
+
+        lock.lock();
+        try {
+            return segments[index].get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final String key, final T value) {
+        final var index = segmentFor(key);
+        final var lock = locks[index];
+
+        lock.lock();
+        try {
+            segments[index].put(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final String key, final T value, final Long ttl) {
+        final var index = segmentFor(key);
+        final var lock = locks[index];
+
+        lock.lock();
+        try {
+            segments[index].put(key, value, ttl);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        if (key == null) {
+            return;
+        }
+        final var index = segmentFor(key);
+        final var lock = locks[index];
+
+        lock.lock();
+        try {
+            segments[index].invalidate(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        final var entries = new ArrayList<SnapshotEntry<T>>();
+
+        for (int i = 0; i < segments.length; i += 1) {
+            locks[i].lock();
+            try {
+                entries.addAll(segments[i].snapshot());
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var entriesBySegment = new ArrayList<List<SnapshotEntry<T>>>(segments.length);
+
+        for (int i = 0; i < segments.length; i += 1) {
+            entriesBySegment.add(new ArrayList<>());
+        }
+        for (final var entry : entries) {
+            entriesBySegment.get(segmentFor(entry.key)).add(entry);
+        }
+
+        for (int i = 0; i < segments.length; i += 1) {
+            locks[i].lock();
+            try {
+                segments[i].restore(entriesBySegment.get(i));
+            } finally {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    // keys are grouped per segment so each segment lock is taken once for the whole batch
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var keysBySegment = new ArrayList<List<String>>(segments.length);
+
+        for (int i = 0; i < segments.length; i += 1) {
+            keysBySegment.add(new ArrayList<>());
+        }
+        for (final var key : keys) {
+            if (key != null) {
+                keysBySegment.get(segmentFor(key)).add(key);
+            }
+        }
+
+        final var presentEntries = new HashMap<String, T>();
+
+        for (int i = 0; i < segments.length; i += 1) {
+            if (keysBySegment.get(i).isEmpty()) {
+                continue;
+            }
+            locks[i].lock();
+            try {
+                presentEntries.putAll(segments[i].getAll(keysBySegment.get(i)));
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return presentEntries;
+    }
+
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var entriesBySegment = new ArrayList<Map<String, T>>(segments.length);
+
+        for (int i = 0; i < segments.length; i += 1) {
+            entriesBySegment.add(new HashMap<>());
+        }
+        entries.forEach((key, value) -> entriesBySegment.get(segmentFor(key)).put(key, value));
+
+        for (int i = 0; i < segments.length; i += 1) {
+            if (entriesBySegment.get(i).isEmpty()) {
+                continue;
+            }
+            locks[i].lock();
+            try {
+                segments[i].putAll(entriesBySegment.get(i));
+            } finally {
+                locks[i].unlock();
+            }
+        }
+    }
+}
+
+// bounded multi-producer buffer of key accesses, offers simply fail instead of waiting when full or contended
+class AccessReadBuffer {
+    private static final int BUFFER_SIZE = 32;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(BUFFER_SIZE);
+    private final AtomicLong writeCounter = new AtomicLong();
+    private volatile long readCounter;
+
+    // false when the access was dropped because the buffer is full, which signals a drain is due
+    boolean offer(final String key) {
+        final var tail = writeCounter.get();
+
+        if (tail - readCounter >= BUFFER_SIZE) {
+            return false;
+        }
+        if (writeCounter.compareAndSet(tail, tail + 1)) {
+            slots.lazySet((int) (tail & BUFFER_MASK), key);
+        }
+        return true;
+    }
+
+    // must only be called by the single thread holding the eviction lock
+    void drainTo(final Consumer<String> consumer) {
+        var head = readCounter;
+        final var tail = writeCounter.get();
+
+        while (head < tail) {
+            final var index = (int) (head & BUFFER_MASK);
+            final var key = slots.get(index);
+
+            if (key == null) {
+                // producer claimed the slot but has not published into it yet
+                break;
+            }
+            slots.lazySet(index, null);
+            consumer.accept(key);
+            head += 1;
+        }
+        readCounter = head;
+    }
+}
+
+class BufferedCacheEntry<T> {
+    final T value;
+    final long expirationTime;
+
+    BufferedCacheEntry(final T value, final long expirationTime) {
+        this.value = value;
+        this.expirationTime = expirationTime;
+    }
+}
+
+// reads go straight to a ConcurrentHashMap and only record the access, the delegate's ordering is
+// replayed in batches under the eviction lock
+class BufferedEvictionStrategy<T> implements EvictionStrategy<T> {
+    private final ConcurrentHashMap<String, BufferedCacheEntry<T>> data;
+    private final EvictionStrategy<T> delegate;
+    private final AccessReadBuffer[] readBuffers;
+    private final int bufferMask;
+    private final ReentrantLock evictionLock;
+    private final Long expiration;
+    private RemovalListener<T> removalListener = (key, value, cause) -> { };
+
+    BufferedEvictionStrategy(final EvictionPolicy policy, final Long expiration, final Integer capacity) {
+        var bufferCount = 1;
+        while (bufferCount < Runtime.getRuntime().availableProcessors()) {
+            bufferCount <<= 1;
+        }
+
+        this.expiration = expiration;
+        this.data = new ConcurrentHashMap<>();
+        this.delegate = Cache.strategyFor(policy, expiration, capacity);
+        this.readBuffers = new AccessReadBuffer[bufferCount];
+        this.bufferMask = bufferCount - 1;
+        this.evictionLock = new ReentrantLock();
+
+        for (int i = 0; i < bufferCount; i += 1) {
+            readBuffers[i] = new AccessReadBuffer();
+        }
+        // only the entry the delegate dropped leaves the map: writes publish before the delegate runs, so an
+        // expired predecessor it clears on the way must not take the freshly written entry with it
+        this.delegate.setRemovalListener((key, value, cause) -> {
+            final var now = System.currentTimeMillis();
+
+            data.computeIfPresent(key, (mapKey, entry) ->
+                entry.value == value && (cause != RemovalCause.EXPIRED || now >= entry.expirationTime) ? null : entry);
+            removalListener.onRemoval(key, value, cause);
+        });
+    }
+
+    private AccessReadBuffer bufferForCurrentThread() {
+        final var threadHash = Long.hashCode(Thread.currentThread().getId()) * 0x9E3779B9;
+
+        return readBuffers[(threadHash ^ (threadHash >>> 16)) & bufferMask];
+    }
+
+    private void drainReadBuffers() {
+        for (final var buffer : readBuffers) {
+            buffer.drainTo(delegate::get);
+        }
+    }
+
+    private void tryDrainReadBuffers() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            drainReadBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public EvictionPolicy policyType() {
+        return delegate.policyType();
+    }
+
+    @Override
+    public void setRemovalListener(final RemovalListener<T> listener) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public void setStatsCounter(final StatsCounter statsCounter) {
+        evictionLock.lock();
+        try {
+            delegate.setStatsCounter(statsCounter);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // the delegate's removal listener takes the entry out of the map as well
+    @Override
+    public void invalidate(final String key) {
+        if (key == null) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            delegate.invalidate(key);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public List<SnapshotEntry<T>> snapshot() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            return delegate.snapshot();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void restore(final List<SnapshotEntry<T>> entries) {
+        final var now = System.currentTimeMillis();
+
+        evictionLock.lock();
+        try {
+            for (final var entry : entries) {
+                data.putIfAbsent(entry.key, new BufferedCacheEntry<>(entry.value, now + entry.remainingTtl));
+            }
+            delegate.restore(entries);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void setWeigher(final Weigher<T> weigher, final Long maximumWeight) {
+        evictionLock.lock();
+        try {
+            delegate.setWeigher(weigher, maximumWeight);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public long weight() {
+        evictionLock.lock();
+        try {
+            return delegate.weight();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public T get(final String key) {
+        if (key == null) {
+            return null;
+        }
+        final var retrievedEntry = data.get(key);
+
+        if (retrievedEntry == null || System.currentTimeMillis() > retrievedEntry.expirationTime) {
+            return null;
+        }
+        if (!bufferForCurrentThread().offer(key)) {
+            tryDrainReadBuffers();
+        }
+
+        return retrievedEntry.value;
+    }
+
+    @Override
+    public void put(final String key, final T value) {
+        put(key, value, this.expiration);
+    }
+
+    @Override
+    public void put(final String key, final T value, final Long ttl) {
+        final var newEntry = new BufferedCacheEntry<>(value, System.currentTimeMillis() + ttl);
+
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            data.put(key, newEntry);
+            delegate.put(key, value, ttl);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, T> getAll(final Collection<String> keys) {
+        final var now = System.currentTimeMillis();
+        final var readBuffer = bufferForCurrentThread();
+        final var presentEntries = new HashMap<String, T>();
+        var bufferFull = false;
+
+        for (final var key : keys) {
+            final var retrievedEntry = key == null ? null : data.get(key);
+
+            if (retrievedEntry != null && now <= retrievedEntry.expirationTime) {
+                presentEntries.put(key, retrievedEntry.value);
+                bufferFull |= !readBuffer.offer(key);
+            }
+        }
+        if (bufferFull) {
+            tryDrainReadBuffers();
+        }
+        return presentEntries;
+    }
+
+    @Override
+    public void putAll(final Map<String, T> entries) {
+        final var expirationTime = System.currentTimeMillis() + this.expiration;
+
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            entries.forEach((key, value) -> data.put(key, new BufferedCacheEntry<>(value, expirationTime)));
+            delegate.putAll(entries);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+}
+
+class Cache<T> {
+
+    private final EvictionStrategy<T> strategy;
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    public Cache(final EvictionPolicy userEvictionPolicy,
+                 final Long expirationWindow,
+                 final Integer capacity) {
+        strategy = strategyFor(userEvictionPolicy, expirationWindow, capacity);
+    }
+
+    // shared cache, keys are spread over concurrencyLevel segments that lock independently
+    public Cache(final EvictionPolicy userEvictionPolicy,
+                 final Long expirationWindow,
+                 final Integer capacity,
+                 final Integer concurrencyLevel) {
+        strategy = new StripedEvictionStrategy<>(capacity, concurrencyLevel,
+            segmentCapacity -> strategyFor(userEvictionPolicy, expirationWindow, segmentCapacity));
+    }
+
+    public Cache(final EvictionPolicy userEvictionPolicy,
+                 final Long expirationWindow,
+                 final Integer capacity,
+                 final ConcurrencyMode concurrencyMode) {
+        if (concurrencyMode == ConcurrencyMode.READ_BUFFERED) {
+            strategy = new BufferedEvictionStrategy<>(userEvictionPolicy, expirationWindow, capacity);
+        } else {
+            strategy = new StripedEvictionStrategy<>(capacity, Runtime.getRuntime().availableProcessors(),
+                segmentCapacity -> strategyFor(userEvictionPolicy, expirationWindow, segmentCapacity));
+        }
+    }
+
+    // capacity is a weight budget, entries are evicted until their summed weights fit under maximumWeight
+    public Cache(final EvictionPolicy userEvictionPolicy,
+                 final Long expirationWindow,
+                 final Long maximumWeight,
+                 final Weigher<T> weigher) {
+        // the entry count only sizes TinyLFU's frequency sketch here
+        strategy = strategyFor(userEvictionPolicy, expirationWindow, (int) Math.min(maximumWeight, 1 << 20));
+        strategy.setWeigher(weigher, maximumWeight);
+    }
+
+    // EvictionPolicy.OFF_HEAP_LRU: values are serialized into direct memory, capacity is a budget in bytes
+    public Cache(final Long expirationWindow,
+                 final Long capacityInBytes,
+                 final ValueSerializer<T> serializer) {
+        strategy = new OffHeapEvictionStrategy<>(capacityInBytes, expirationWindow, serializer);
+    }
+
+    public Cache(final EvictionStrategy<T> strategy) {
+        this.strategy = strategy;
+    }
+
+    static <T> EvictionStrategy<T> strategyFor(final EvictionPolicy userEvictionPolicy,
+                                               final Long expirationWindow,
+                                               final Integer capacity) {
+        if (userEvictionPolicy == EvictionPolicy.LRU) {
+            return new LruEvictionStrategy<>(capacity, expirationWindow);
+        } else if (userEvictionPolicy == EvictionPolicy.FIFO) {
+            return new FifoEvictionStrategy<>(capacity, expirationWindow);
+        } else if (userEvictionPolicy == EvictionPolicy.LFU) {
+            return new LfuEvictionStrategy<>(capacity, expirationWindow);
+        } else if (userEvictionPolicy == EvictionPolicy.LINKED_LRU) {
+            return new LinkedLruEvictionStrategy<>(capacity, expirationWindow);
+        } else if (userEvictionPolicy == EvictionPolicy.BUCKET_LFU) {
+            return new BucketLfuEvictionStrategy<>(capacity, expirationWindow);
+        } else if (userEvictionPolicy == EvictionPolicy.TINY_LFU) {
+            return new TinyLfuEvictionStrategy<>(capacity, expirationWindow);
+        } else if (userEvictionPolicy == EvictionPolicy.OFF_HEAP_LRU) {
+            throw new IllegalArgumentException("off-heap caches need a serializer, use the byte capacity constructor");
+        }
+
+        System.err.println("not able to find relevant strategy");
+        return null;
+    }
+
+    // stats are off by default, enable them before the cache is shared between threads
+    void recordStats() {
+        setStatsCounter(new ConcurrentStatsCounter());
+    }
+
+    void setStatsCounter(final StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        strategy.setStatsCounter(statsCounter);
+    }
+
+    CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    T get(final String key) {
+        final var value = strategy.get(key);
+
+        if (value == null) {
+            statsCounter.recordMisses(1);
+        } else {
+            statsCounter.recordHits(1);
+        }
+        return value;
+    }
+
+    void put(final String key, final T incomingValue) {
+        strategy.put(key, incomingValue);
+    }
+
+    void put(final String key, final T incomingValue, final Long ttl) {
+        strategy.put(key, incomingValue, ttl);
+    }
+
+    Map<String, T> getAll(final Collection<String> keys) {
+        final var presentEntries = strategy.getAll(keys);
+
+        recordLookups(keys, presentEntries, null);
+        return presentEntries;
+    }
+
+    // keys that are missing or expired are fetched with a single loadAll call and cached as one batch
+    Map<String, T> getAll(final Collection<String> keys, final BulkCacheLoader<T> loader) {
+        final var presentEntries = strategy.getAll(keys);
+        final var missingKeys = new HashSet<String>();
+
+        recordLookups(keys, presentEntries, missingKeys);
+        if (missingKeys.isEmpty()) {
+            return presentEntries;
+        }
+
+        final var loadStart = System.nanoTime();
+        final Map<String, T> loadedEntries;
+
+        try {
+            loadedEntries = loader.loadAll(missingKeys);
+        } catch (RuntimeException e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - loadStart);
+            throw e;
+        }
+        statsCounter.recordLoadSuccess(System.nanoTime() - loadStart);
+        strategy.putAll(loadedEntries);
+        presentEntries.putAll(loadedEntries);
+        return presentEntries;
+    }
+
+    // a hit or miss per requested key, duplicates included, as the same get calls would record;
+    // missing keys are collected for loading when a set is passed
+    private void recordLookups(final Collection<String> keys, final Map<String, T> presentEntries,
+                               final Set<String> missingKeys) {
+        var hits = 0;
+        var misses = 0;
+
+        for (final var key : keys) {
+            if (presentEntries.containsKey(key)) {
+                hits += 1;
+            } else {
+                misses += 1;
+                if (missingKeys != null) {
+                    missingKeys.add(key);
+                }
+            }
+        }
+        statsCounter.recordHits(hits);
+        statsCounter.recordMisses(misses);
+    }
+
+    void putAll(final Map<String, T> entries) {
+        strategy.putAll(entries);
+    }
+
+    void invalidate(final String key) {
+        strategy.invalidate(key);
+    }
+
+    // the file is replaced atomically, so a crash while writing leaves the previous snapshot in place
+    void writeSnapshot(final Path file, final ValueSerializer<T> serializer) throws IOException {
+        CacheSnapshotFile.write(file, strategy.snapshot(), serializer);
+    }
+
+    // warm restart: the strategy comes back with the entries, order and frequencies it had when written
+    void loadSnapshot(final Path file, final ValueSerializer<T> serializer) throws IOException {
+        strategy.restore(CacheSnapshotFile.read(file, serializer));
+    }
+
+    long weight() {
+        return strategy.weight();
+    }
+}
+
+// magic, version and entry count, then the offset of every record so they can be decoded in parallel,
+// then the records themselves: key length and bytes, remaining ttl, frequency, value length and bytes
+class CacheSnapshotFile {
+    private static final int MAGIC = 0x4C4C4443;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 4;
+
+    // serializer runs on several threads at once, so it has to be stateless like StringValueSerializer
+    static <T> void write(final Path file, final List<SnapshotEntry<T>> entries,
+                          final ValueSerializer<T> serializer) throws IOException {
+        final var keyBytes = new byte[entries.size()][];
+        final var valueBytes = new byte[entries.size()][];
+
+        IntStream.range(0, entries.size()).parallel().forEach(i -> {
+            keyBytes[i] = entries.get(i).key.getBytes(StandardCharsets.UTF_8);
+            valueBytes[i] = serializer.serialize(entries.get(i).value);
+        });
+
+        var fileSize = HEADER_SIZE + 4L * entries.size();
+        for (int i = 0; i < entries.size(); i += 1) {
+            fileSize += RECORD_OVERHEAD + keyBytes[i].length + valueBytes[i].length;
+        }
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("snapshot of " + fileSize + " bytes does not fit a single mapping");
+        }
+
+        final var temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (final var channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            var recordOffset = HEADER_SIZE + 4 * entries.size();
+
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(entries.size());
+            for (int i = 0; i < entries.size(); i += 1) {
+                final var entry = entries.get(i);
+
+                buffer.putInt(HEADER_SIZE + 4 * i, recordOffset);
+                buffer.position(recordOffset);
+                buffer.putInt(keyBytes[i].length).put(keyBytes[i])
+                    .putLong(entry.remainingTtl).putLong(entry.frequency)
+                    .putInt(valueBytes[i].length).put(valueBytes[i]);
+                recordOffset = buffer.position();
+            }
+            buffer.force();
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // a missing file is a cold start and reads as an empty snapshot
+    static <T> List<SnapshotEntry<T>> read(final Path file, final ValueSerializer<T> serializer) throws IOException {
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a cache snapshot");
+            }
+            // absolute reads only, so every thread can share the one mapping; the collected list keeps file order
+            return IntStream.range(0, buffer.getInt(8)).parallel()
+                .mapToObj(i -> readRecord(buffer, buffer.getInt(HEADER_SIZE + 4 * i), serializer))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static <T> SnapshotEntry<T> readRecord(final ByteBuffer buffer, final int recordOffset,
+                                                   final ValueSerializer<T> serializer) {
+        final var keyBytes = new byte[buffer.getInt(recordOffset)];
+        final var ttlOffset = recordOffset + 4 + keyBytes.length;
+
+        buffer.get(recordOffset + 4, keyBytes);
+        final var valueLength = buffer.getInt(ttlOffset + 16);
+        final var value = serializer.deserialize(buffer.slice(ttlOffset + 20, valueLength));
+
+        return new SnapshotEntry<>(new String(keyBytes, StandardCharsets.UTF_8), value,
+            buffer.getLong(ttlOffset), buffer.getLong(ttlOffset + 8));
+    }
+}
+
+interface BulkCacheLoader<T> {
+    Map<String, T> loadAll(final Set<String> keys);
+}
+
+interface CacheLoader<T> {
+    T load(final String key) throws Exception;
+}
+
+class LoadedValue<T> {
+    final T value;
+    final long refreshTime;
+
+    LoadedValue(final T value, final long refreshTime) {
+        this.value = value;
+        this.refreshTime = refreshTime;
+    }
+}
+
+// misses are loaded asynchronously and concurrent misses on one key share a single load; entries that are
+// within refreshAheadWindow of expiring are reloaded in the background while the old value is still served
+class LoadingCache<T> {
+    private final Cache<LoadedValue<T>> cache;
+    private final Map<String, CompletableFuture<T>> inFlightLoads;
+    private final CacheLoader<T> loader;
+    private final Executor executor;
+    private final Long expirationWindow;
+    private final Long refreshAheadWindow;
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    public LoadingCache(final EvictionPolicy userEvictionPolicy,
+                        final Long expirationWindow,
+                        final Integer capacity,
+                        final Long refreshAheadWindow,
+                        final CacheLoader<T> loader,
+                        final Executor executor) {
+        // a window as long as the expiration would refresh on every read
+        if (refreshAheadWindow < 0 || refreshAheadWindow >= expirationWindow) {
+            throw new IllegalArgumentException("refreshAheadWindow must be in [0, " + expirationWindow
+                + "), got " + refreshAheadWindow);
+        }
+        this.cache = new Cache<>(userEvictionPolicy, expirationWindow, capacity,
+            Runtime.getRuntime().availableProcessors());
+        this.inFlightLoads = new ConcurrentHashMap<>();
+        this.loader = loader;
+        this.executor = executor;
+        this.expirationWindow = expirationWindow;
+        this.refreshAheadWindow = refreshAheadWindow;
+    }
+
+    // hits and misses come from the underlying cache, load times are recorded here
+    void recordStats() {
+        statsCounter = new ConcurrentStatsCounter();
+        cache.setStatsCounter(statsCounter);
+    }
+
+    CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    CompletableFuture<T> get(final String key) {
+        final var cachedValue = cache.get(key);
+
+        if (cachedValue == null) {
+            return load(key);
+        }
+        if (System.currentTimeMillis() >= cachedValue.refreshTime) {
+            load(key);
+        }
+        return CompletableFuture.completedFuture(cachedValue.value);
+    }
+
+    private CompletableFuture<T> load(final String key) {
+        final var newLoad = new CompletableFuture<T>();
+        final var runningLoad = inFlightLoads.putIfAbsent(key, newLoad);
+
+        if (runningLoad != null) {
+            return runningLoad;
+        }
+
+        try {
+            executor.execute(() -> runLoad(key, newLoad));
+        } catch (RuntimeException e) {
+            // rejected or otherwise failed to submit, later gets must not wait on this load
+            inFlightLoads.remove(key, newLoad);
+            newLoad.completeExceptionally(e);
+        }
+
+        return newLoad;
+    }
+
+    private void runLoad(final String key, final CompletableFuture<T> newLoad) {
+        final var loadStart = System.nanoTime();
+
+        try {
+            final var loadedValue = loader.load(key);
+
+            statsCounter.recordLoadSuccess(System.nanoTime() - loadStart);
+            if (loadedValue != null) {
+                final var refreshTime = System.currentTimeMillis() + expirationWindow - refreshAheadWindow;
+
+                cache.put(key, new LoadedValue<>(loadedValue, refreshTime));
+            }
+            // unregister only once the value is cached, so a later miss cannot start a duplicate load
+            inFlightLoads.remove(key, newLoad);
+            newLoad.complete(loadedValue);
+        } catch (Exception e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - loadStart);
+            inFlightLoads.remove(key, newLoad);
+            newLoad.completeExceptionally(e);
+        }
+    }
+}
+
+// open-addressed long keys plus their eviction order, all in parallel primitive arrays indexed by slot;
+// slots are recycled, so nothing is allocated once the index is built. Eviction order works like
+// BucketLfuEvictionStrategy: a recency list per frequency, and LRU simply never leaves the first bucket
+class LongKeyIndex {
+    static final int NONE = -1;
+
+    private final boolean countsFrequency;
+    private final long[] keys;
+    // slot + 1 per hash position, 0 is a free position; kept at most half full so probe runs stay short
+    private final int[] table;
+    private final int tableMask;
+    private final int[] entryPrevious;
+    private final int[] entryNext;
+    private final int[] entryBucket;
+    // buckets are kept in ascending frequency after the sentinel, first is the most recent entry
+    private final long[] bucketFrequency;
+    private final int[] bucketPrevious;
+    private final int[] bucketNext;
+    private final int[] bucketFirst;
+    private final int[] bucketLast;
+    private final int bucketSentinel;
+    private final int[] freeSlots;
+    private final int[] freeBuckets;
+    private int freeSlotCount;
+    private int freeBucketCount;
+
+    LongKeyIndex(final EvictionPolicy policy, final Integer capacity) {
+        if (policy == EvictionPolicy.LRU || policy == EvictionPolicy.LINKED_LRU) {
+            this.countsFrequency = false;
+        } else if (policy == EvictionPolicy.LFU || policy == EvictionPolicy.BUCKET_LFU) {
+            this.countsFrequency = true;
+        } else {
+            throw new IllegalArgumentException("long keyed caches support LRU and LFU, not " + policy);
+        }
+        // a full index always has a victim to evict, an empty one would have none
+        if (capacity < 1) {
+            throw new IllegalArgumentException("long keyed caches need a capacity of at least 1, not " + capacity);
+        }
+        var tableSize = 2;
+        while (tableSize < capacity * 2) {
+            tableSize <<= 1;
+        }
+
+        this.keys = new long[capacity];
+        this.table = new int[tableSize];
+        this.tableMask = tableSize - 1;
+        this.entryPrevious = new int[capacity];
+        this.entryNext = new int[capacity];
+        this.entryBucket = new int[capacity];
+        this.bucketFrequency = new long[capacity + 1];
+        this.bucketPrevious = new int[capacity + 1];
+        this.bucketNext = new int[capacity + 1];
+        this.bucketFirst = new int[capacity + 1];
+        this.bucketLast = new int[capacity + 1];
+        this.bucketSentinel = capacity;
+        this.bucketPrevious[bucketSentinel] = bucketSentinel;
+        this.bucketNext[bucketSentinel] = bucketSentinel;
+        this.freeSlots = new int[capacity];
+        this.freeBuckets = new int[capacity];
+
+        for (int i = 0; i < capacity; i += 1) {
+            freeSlots[i] = capacity - 1 - i;
+            freeBuckets[i] = capacity - 1 - i;
+        }
+        this.freeSlotCount = capacity;
+        this.freeBucketCount = capacity;
+    }
+
+    int size() {
+        return keys.length - freeSlotCount;
+    }
+
+    boolean isFull() {
+        return freeSlotCount == 0;
+    }
+
+    private int positionOf(final long key) {
+        final var hash = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (hash ^ (hash >>> 32)) & tableMask;
+    }
+
+    int find(final long key) {
+        var position = positionOf(key);
+
+        while (table[position] != 0) {
+            final var slot = table[position] - 1;
+
+            if (keys[slot] == key) {
+                return slot;
+            }
+            position = (position + 1) & tableMask;
+        }
+        return NONE;
+    }
+
+    private void unindex(final long key) {
+        var gap = positionOf(key);
+
+        while (keys[table[gap] - 1] != key) {
+            gap = (gap + 1) & tableMask;
+        }
+        // backward shift instead of tombstones: later keys of the probe run move into the gap
+        // whenever the gap lies between their home position and where they sit now
+        var position = (gap + 1) & tableMask;
+
+        while (table[position] != 0) {
+            final var home = positionOf(keys[table[position] - 1]);
+
+            if (((position - home) & tableMask) >= ((position - gap) & tableMask)) {
+                table[gap] = table[position];
+                gap = position;
+            }
+            position = (position + 1) & tableMask;
+        }
+        table[gap] = 0;
+    }
+
+    private void linkFirst(final int bucket, final int slot) {
+        final var first = bucketFirst[bucket];
+
+        entryBucket[slot] = bucket;
+        entryPrevious[slot] = NONE;
+        entryNext[slot] = first;
+        if (first != NONE) {
+            entryPrevious[first] = slot;
+        } else {
+            bucketLast[bucket] = slot;
+        }
+        bucketFirst[bucket] = slot;
+    }
+
+    private void unlink(final int slot) {
+        final var bucket = entryBucket[slot];
+        final var previous = entryPrevious[slot];
+        final var next = entryNext[slot];
+
+        if (previous != NONE) {
+            entryNext[previous] = next;
+        } else {
+            bucketFirst[bucket] = next;
+        }
+        if (next != NONE) {
+            entryPrevious[next] = previous;
+        } else {
+            bucketLast[bucket] = previous;
+        }
+    }
+
+    private int bucketAfter(final int bucket, final long frequency) {
+        final var next = bucketNext[bucket];
+
+        if (next != bucketSentinel && bucketFrequency[next] == frequency) {
+            return next;
+        }
+        final var newBucket = freeBuckets[--freeBucketCount];
+
+        bucketFrequency[newBucket] = frequency;
+        bucketFirst[newBucket] = NONE;
+        bucketLast[newBucket] = NONE;
+        bucketPrevious[newBucket] = bucket;
+        bucketNext[newBucket] = next;
+        bucketPrevious[next] = newBucket;
+        bucketNext[bucket] = newBucket;
+
+        return newBucket;
+    }
+
+    private void releaseIfEmpty(final int bucket) {
+        if (bucketFirst[bucket] != NONE) {
+            return;
+        }
+        bucketNext[bucketPrevious[bucket]] = bucketNext[bucket];
+        bucketPrevious[bucketNext[bucket]] = bucketPrevious[bucket];
+        freeBuckets[freeBucketCount++] = bucket;
+    }
+
+    void recordAccess(final int slot) {
+        final var bucket = entryBucket[slot];
+
+        if (!countsFrequency) {
+            if (bucketFirst[bucket] != slot) {
+                unlink(slot);
+                linkFirst(bucket, slot);
+            }
+            return;
+        }
+        final var frequency = bucketFrequency[bucket] + 1L;
+        final var next = bucketNext[bucket];
+
+        // a bucket holding only this entry can be renumbered in place, which also means an index with
+        // every entry in its own bucket never needs one bucket more than it has slots
+        if (bucketFirst[bucket] == bucketLast[bucket]
+            && (next == bucketSentinel || bucketFrequency[next] != frequency)) {
+            bucketFrequency[bucket] = frequency;
+            return;
+        }
+        final var targetBucket = bucketAfter(bucket, frequency);
+
+        unlink(slot);
+        releaseIfEmpty(bucket);
+        linkFirst(targetBucket, slot);
+    }
+
+    // least recent entry of the lowest frequency, NONE when empty
+    int victim() {
+        final var lowestBucket = bucketNext[bucketSentinel];
+
+        return lowestBucket == bucketSentinel ? NONE : bucketLast[lowestBucket];
+    }
+
+    // the key must be absent and the index not full
+    int insert(final long key) {
+        final var slot = freeSlots[--freeSlotCount];
+        var position = positionOf(key);
+
+        while (table[position] != 0) {
+            position = (position + 1) & tableMask;
+        }
+        table[position] = slot + 1;
+        keys[slot] = key;
+        linkFirst(bucketAfter(bucketSentinel, 1L), slot);
+
+        return slot;
+    }
+
+    void remove(final int slot) {
+        final var bucket = entryBucket[slot];
+
+        unindex(keys[slot]);
+        unlink(slot);
+        releaseIfEmpty(bucket);
+        freeSlots[freeSlotCount++] = slot;
+    }
+}
+
+// Cache for numeric ids without boxing them into strings; LRU or LFU by entry count, no expiration,
+// and nothing is allocated per operation. Not thread safe, same as the strategies it mirrors
+class LongKeyCache<T> {
+    private final LongKeyIndex index;
+    private final Object[] values;
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    LongKeyCache(final EvictionPolicy policy, final Integer capacity) {
+        this.index = new LongKeyIndex(policy, capacity);
+        this.values = new Object[capacity];
+    }
+
+    void recordStats() {
+        statsCounter = new ConcurrentStatsCounter();
+    }
+
+    CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(final long key) {
+        final var slot = index.find(key);
+
+        if (slot == LongKeyIndex.NONE) {
+            statsCounter.recordMisses(1);
+            return null;
+        }
+        statsCounter.recordHits(1);
+        index.recordAccess(slot);
+
+        return (T) values[slot];
+    }
+
+    void put(final long key, final T value) {
+        var slot = index.find(key);
+
+        if (slot != LongKeyIndex.NONE) {
+            values[slot] = value;
+            index.recordAccess(slot);
+            return;
+        }
+        if (index.isFull()) {
+            final var victim = index.victim();
+
+            index.remove(victim);
+            values[victim] = null;
+            statsCounter.recordEviction(RemovalCause.SIZE, 1L);
+        }
+        slot = index.insert(key);
+        values[slot] = value;
+    }
+
+    void invalidate(final long key) {
+        final var slot = index.find(key);
+
+        if (slot == LongKeyIndex.NONE) {
+            return;
+        }
+        index.remove(slot);
+        values[slot] = null;
+        statsCounter.recordEviction(RemovalCause.EXPLICIT, 1L);
+    }
+
+    int size() {
+        return index.size();
+    }
+}
+
+// LongKeyCache with primitive values as well, so a lookup never touches an object at all
+class LongLongCache {
+    private final LongKeyIndex index;
+    private final long[] values;
+    private StatsCounter statsCounter = DisabledStatsCounter.INSTANCE;
+
+    LongLongCache(final EvictionPolicy policy, final Integer capacity) {
+        this.index = new LongKeyIndex(policy, capacity);
+        this.values = new long[capacity];
+    }
+
+    void recordStats() {
+        statsCounter = new ConcurrentStatsCounter();
+    }
+
+    CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    // absentValue is returned on a miss, since there is no null to signal it with
+    long get(final long key, final long absentValue) {
+        final var slot = index.find(key);
+
+        if (slot == LongKeyIndex.NONE) {
+            statsCounter.recordMisses(1);
+            return absentValue;
+        }
+        statsCounter.recordHits(1);
+        index.recordAccess(slot);
+
+        return values[slot];
+    }
+
+    boolean containsKey(final long key) {
+        return index.find(key) != LongKeyIndex.NONE;
+    }
+
+    void put(final long key, final long value) {
+        var slot = index.find(key);
+
+        if (slot != LongKeyIndex.NONE) {
+            values[slot] = value;
+            index.recordAccess(slot);
+            return;
+        }
+        if (index.isFull()) {
+            index.remove(index.victim());
+            statsCounter.recordEviction(RemovalCause.SIZE, 1L);
+        }
+        slot = index.insert(key);
+        values[slot] = value;
+    }
+
+    void invalidate(final long key) {
+        final var slot = index.find(key);
+
+        if (slot != LongKeyIndex.NONE) {
+            index.remove(slot);
+            statsCounter.recordEviction(RemovalCause.EXPLICIT, 1L);
+        }
+    }
+
+    int size() {
+        return index.size();
+    }
+}
+
+// replays synthetic Zipfian traces against every policy and prints the hit rates side by side
+class CacheHitRateComparison {
+    private static final int DISTINCT_KEYS = 100_000;
+    private static final int TRACE_LENGTH = 1_000_000;
+
+    private static String[] zipfianTrace(final double exponent, final long seed) {
+        final var cumulative = new double[DISTINCT_KEYS];
+        var total = 0.0;
+
+        for (int rank = 0; rank < DISTINCT_KEYS; rank += 1) {
+            total += 1.0 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+
+        final var random = new Random(seed);
+        final var trace = new String[TRACE_LENGTH];
+
+        for (int i = 0; i < TRACE_LENGTH; i += 1) {
+            final var index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+
+            // scramble ranks so popularity is not correlated with key order
+            trace[i] = Integer.toString(((index < 0 ? -index - 1 : index) * 7919) % DISTINCT_KEYS);
+        }
+        return trace;
+    }
+
+    private static double hitRate(final EvictionPolicy policy, final Integer capacity, final String[] trace) {
+        final var cache = new Cache<Boolean>(policy, Long.MAX_VALUE / 2, capacity);
+
+        cache.recordStats();
+        for (final var key : trace) {
+            if (cache.get(key) == null) {
+                cache.put(key, Boolean.TRUE);
+            }
+        }
+        return 100.0 * cache.stats().hitRate();
+    }
+
+    public static void main(String[] args) {
+        final EvictionPolicy[] policies = {
+            EvictionPolicy.FIFO, EvictionPolicy.LRU, EvictionPolicy.LFU, EvictionPolicy.TINY_LFU
+        };
+
+        for (final var exponent : new double[]{0.7, 0.9, 1.1}) {
+            final var trace = zipfianTrace(exponent, 42L);
+
+            for (final var capacity : new int[]{500, 2_000, 10_000}) {
+                final var row = new StringBuilder(String.format("zipf s=%.1f capacity=%-6d", exponent, capacity));
+
+                for (final var policy : policies) {
+                    row.append(String.format(" %s=%.2f%%", policy, hitRate(policy, capacity, trace)));
+                }
+                System.out.println(row);
+            }
+        }
+    }
+}
+
+public class LowLevelDesignCache {
+
+    public static void main(String[] args) {
+        final var cacheSystem = new Cache<Long>(EvictionPolicy.LRU, 2000L, 4);
+
+        cacheSystem.put("1", 1L);
+        cacheSystem.put("2", 2L);
+        cacheSystem.put("3", 3L);
+        cacheSystem.put("4", 4L);
+        cacheSystem.put("5", 5L);
+
+        System.out.println(cacheSystem.get("1"));
+        System.out.println(cacheSystem.get("2"));
         System.out.println(cacheSystem.get("3"));
         System.out.println(cacheSystem.get("4"));
         System.out.println(cacheSystem.get("5"));
 
+        // shared between threads: reads skip the policy's lock and are applied to the LRU order in batches
+        final var sharedCache = new Cache<Long>(EvictionPolicy.LRU, 2000L, 4, ConcurrencyMode.READ_BUFFERED);
+
+        sharedCache.put("1", 1L);
+        sharedCache.put("2", 2L);
+        System.out.println(sharedCache.get("1"));
+        System.out.println(sharedCache.get("3"));
+
+        // values are loaded on a miss and refreshed in the background once they are within 500ms of expiring
+        final var loaderPool = Executors.newFixedThreadPool(2);
+        final var loadingCache = new LoadingCache<String>(EvictionPolicy.LRU, 2000L, 4, 500L,
+            key -> "value-of-" + key, loaderPool);
+
+        System.out.println(loadingCache.get("1").join());
+        System.out.println(loadingCache.get("1").join());
+        loaderPool.shutdown();
     }
 }
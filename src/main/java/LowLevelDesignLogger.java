@@ -1,98 +1,642 @@
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.zone.ZoneRules;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 enum LogLevel {
     DEBUG, INFO, WARN, ERROR
 }
 
+// mutable so the garbage free path can refill one instance per thread or ring slot instead of allocating
 class LogEvent {
-    final String msg;
-    final LogLevel level;
-    final ZonedDateTime timestamp;
+    // null for parameterized events until message() renders it, formatters expand the template in place instead
+    private String msg;
+    LogLevel level;
+    long epochNanos;
+    // set by the parameterized logging calls; one or two arguments are kept without an array
+    String template;
+    private Object[] arguments;
+    private Object firstArgument;
+    private Object secondArgument;
+    private int argumentCount;
+    // bit per SharedFilter id: evaluated for this event yet, and whether it dropped it
+    long evaluatedFilters;
+    long droppingFilters;
+    private ZonedDateTime timestamp;
+
+    LogEvent() {
+    }
 
     public LogEvent(String msg, LogLevel level, ZonedDateTime timestamp) {
         this.msg = msg;
         this.level = level;
         this.timestamp = timestamp;
+        this.epochNanos = timestamp.toEpochSecond() * 1_000_000_000L + timestamp.getNano();
+    }
+
+    LogEvent set(final String msg, final LogLevel level, final long epochNanos) {
+        this.msg = msg;
+        this.level = level;
+        this.epochNanos = epochNanos;
+        this.template = null;
+        this.arguments = null;
+        this.firstArgument = null;
+        this.secondArgument = null;
+        this.argumentCount = 0;
+        this.evaluatedFilters = 0L;
+        this.droppingFilters = 0L;
+        this.timestamp = null;
+        return this;
+    }
+
+    LogEvent withTemplate(final String template, final Object[] arguments) {
+        this.template = template;
+        this.arguments = arguments;
+        this.argumentCount = arguments == null ? 0 : arguments.length;
+        return this;
+    }
+
+    LogEvent withTemplate(final String template, final Object firstArgument, final Object secondArgument,
+                          final int argumentCount) {
+        this.template = template;
+        this.firstArgument = firstArgument;
+        this.secondArgument = secondArgument;
+        this.argumentCount = argumentCount;
+        return this;
+    }
+
+    int argumentCount() {
+        return argumentCount;
+    }
+
+    Object argument(final int index) {
+        return arguments != null ? arguments[index] : index == 0 ? firstArgument : secondArgument;
+    }
+
+    // rendered on first use and kept, filters and the non garbage free path read the message as a String
+    String message() {
+        if (msg == null) {
+            if (argumentCount == 0) {
+                msg = template;
+            } else {
+                final var message = new StringBuilder(template.length() + 16 * argumentCount);
+
+                ParameterizedMessage.formatTo(this, message);
+                msg = message.toString();
+            }
+        }
+        return msg;
+    }
+
+    void appendMessageTo(final StringBuilder destination) {
+        if (msg != null) {
+            destination.append(msg);
+        } else {
+            ParameterizedMessage.formatTo(this, destination);
+        }
+    }
+
+    void copyFrom(final LogEvent other) {
+        this.msg = other.msg;
+        this.level = other.level;
+        this.epochNanos = other.epochNanos;
+        this.template = other.template;
+        this.arguments = other.arguments;
+        this.firstArgument = other.firstArgument;
+        this.secondArgument = other.secondArgument;
+        this.argumentCount = other.argumentCount;
+        this.evaluatedFilters = other.evaluatedFilters;
+        this.droppingFilters = other.droppingFilters;
+        this.timestamp = other.timestamp;
+    }
+
+    // built on first use for events that only carry epochNanos
+    ZonedDateTime timestamp() {
+        if (timestamp == null) {
+            timestamp = Instant.ofEpochSecond(0L, epochNanos).atZone(ZoneId.systemDefault());
+        }
+        return timestamp;
     }
 }
 
 interface Filter {
     boolean accept(LogEvent event);
+
+    // true only when every event of this level is filtered out, which lets the logger skip building it
+    default boolean filtersOutLevel(LogLevel level) {
+        return false;
+    }
 }
 
 class LevelFilter implements Filter {
 
-    final List<LogLevel> levelsToBeFiltered = new ArrayList<>();
+    // bit per LogLevel ordinal
+    private int levelsToBeFiltered;
 
     public LevelFilter addLevelsToBeFiltered(final LogLevel inputLevel) {
-        levelsToBeFiltered.add(inputLevel);
+        levelsToBeFiltered |= 1 << inputLevel.ordinal();
         return this;
     }
 
     @Override
     public boolean accept(LogEvent event) {
-        return levelsToBeFiltered.contains(event.level);
+        return filtersOutLevel(event.level);
+    }
+
+    @Override
+    public boolean filtersOutLevel(LogLevel level) {
+        return (levelsToBeFiltered & (1 << level.ordinal())) != 0;
+    }
+}
+
+class MessagePrefixFilter implements Filter {
+    private final String prefix;
+
+    public MessagePrefixFilter(final String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public boolean accept(LogEvent event) {
+        return event.message().startsWith(prefix);
+    }
+}
+
+// drops events whose message contains a match of the regex
+class MessagePatternFilter implements Filter {
+    private final Pattern pattern;
+
+    public MessagePatternFilter(final String regex) {
+        this.pattern = Pattern.compile(regex);
+    }
+
+    @Override
+    public boolean accept(LogEvent event) {
+        return pattern.matcher(event.message()).find();
+    }
+}
+
+// lets at most eventsPerSecond events through per wall clock second of event time, drops the rest
+class RateLimitFilter implements Filter {
+    private static final int COUNT_BITS = 31;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final int eventsPerSecond;
+    // second << COUNT_BITS | events admitted in it, swapped as one so a new second never meets an old count
+    private final AtomicLong window = new AtomicLong(Long.MIN_VALUE);
+
+    public RateLimitFilter(final int eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    @Override
+    public boolean accept(LogEvent event) {
+        final var second = Math.floorDiv(event.epochNanos, 1_000_000_000L);
+
+        while (true) {
+            final var current = window.get();
+            final var currentSecond = current >> COUNT_BITS;
+            // late events from an older second are counted against the current one
+            final var admitted = second > currentSecond ? 0L : current & COUNT_MASK;
+
+            if (admitted >= eventsPerSecond) {
+                return true;
+            }
+            if (window.compareAndSet(current, Math.max(second, currentSecond) << COUNT_BITS | (admitted + 1))) {
+                return false;
+            }
+        }
+    }
+}
+
+// drops an event when any of its filters does; levels compile into one mask so filtersOutLevel stays a bit test
+class FilterChain implements Filter {
+    private final Filter[] filters;
+    private final int filteredLevels;
+
+    public FilterChain(final Filter... filters) {
+        this.filters = filters.clone();
+        var levels = 0;
+
+        for (final var level : LogLevel.values()) {
+            for (final var filter : filters) {
+                if (filter.filtersOutLevel(level)) {
+                    levels |= 1 << level.ordinal();
+                    break;
+                }
+            }
+        }
+        this.filteredLevels = levels;
+    }
+
+    @Override
+    public boolean accept(LogEvent event) {
+        if (filtersOutLevel(event.level)) {
+            return true;
+        }
+        for (final var filter : filters) {
+            if (filter.accept(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean filtersOutLevel(LogLevel level) {
+        return (filteredLevels & (1 << level.ordinal())) != 0;
+    }
+}
+
+// wrap a filter given to several appenders so each event runs it once: the verdict is kept on the event.
+// Needed for stateful filters such as RateLimitFilter, which would otherwise count an event once per appender
+class SharedFilter implements Filter {
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private final Filter filter;
+    // past 64 shared filters the verdict is no longer cached and the filter simply runs per appender
+    private final long bit;
+
+    public SharedFilter(final Filter filter) {
+        this.filter = filter;
+        final var id = nextId.getAndIncrement();
+        this.bit = id < Long.SIZE ? 1L << id : 0L;
+    }
+
+    @Override
+    public boolean accept(LogEvent event) {
+        if ((event.evaluatedFilters & bit) != 0) {
+            return (event.droppingFilters & bit) != 0;
+        }
+        final var drop = filter.accept(event);
+
+        event.evaluatedFilters |= bit;
+        if (drop) {
+            event.droppingFilters |= bit;
+        }
+        return drop;
+    }
+
+    @Override
+    public boolean filtersOutLevel(LogLevel level) {
+        return filter.filtersOutLevel(level);
     }
 }
 
 interface Formatter {
     String format(LogEvent event);
+
+    // appends the formatted event without building an intermediate String; override to make it garbage free
+    default void formatTo(LogEvent event, StringBuilder destination) {
+        destination.append(format(event));
+    }
+}
+
+// the text of the second an encoder last saw, replaced as a whole so threads can share it without locking
+class EncodedSecond {
+    final long epochSecond;
+    final char[] prefix;
+    final char[] suffix;
+
+    EncodedSecond(final long epochSecond, final char[] prefix, final char[] suffix) {
+        this.epochSecond = epochSecond;
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+}
+
+// DateTimeFormatter runs once per second to render everything up to the seconds and everything after the
+// fraction; within that second an event only costs copying both around freshly written fraction digits.
+// Timestamps are rendered in the system default zone, as ZonedDateTime.now() produced them
+class CachedTimestampEncoder {
+    private final DateTimeFormatter prefixFormatter;
+    private final DateTimeFormatter suffixFormatter;
+    // exactly three millisecond digits when false, otherwise ISO style: up to nine digits, trailing zeros dropped
+    private final boolean variableFraction;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private volatile EncodedSecond cachedSecond = new EncodedSecond(Long.MIN_VALUE, new char[0], new char[0]);
+
+    private CachedTimestampEncoder(final DateTimeFormatter prefixFormatter, final DateTimeFormatter suffixFormatter,
+                                   final boolean variableFraction) {
+        this.prefixFormatter = prefixFormatter;
+        this.suffixFormatter = suffixFormatter;
+        this.variableFraction = variableFraction;
+    }
+
+    // yyyy-MM-dd HH:mm:ss.SSS Z
+    static CachedTimestampEncoder pretty() {
+        return new CachedTimestampEncoder(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss."),
+            DateTimeFormatter.ofPattern(" Z"), false);
+    }
+
+    // DateTimeFormatter.ISO_DATE_TIME
+    static CachedTimestampEncoder iso() {
+        return new CachedTimestampEncoder(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss"),
+            new DateTimeFormatterBuilder()
+                .appendOffsetId()
+                .optionalStart()
+                .appendLiteral('[')
+                .parseCaseSensitive()
+                .appendZoneRegionId()
+                .appendLiteral(']')
+                .toFormatter(),
+            true);
+    }
+
+    void encode(final long epochNanos, final StringBuilder destination) {
+        final var epochSecond = Math.floorDiv(epochNanos, 1_000_000_000L);
+        final var nanoOfSecond = (int) Math.floorMod(epochNanos, 1_000_000_000L);
+        var second = cachedSecond;
+
+        if (second.epochSecond != epochSecond) {
+            final var dateTime = Instant.ofEpochSecond(epochSecond).atZone(zone);
+
+            second = new EncodedSecond(epochSecond,
+                prefixFormatter.format(dateTime).toCharArray(), suffixFormatter.format(dateTime).toCharArray());
+            cachedSecond = second;
+        }
+
+        destination.append(second.prefix);
+        if (variableFraction) {
+            appendTrimmedFraction(nanoOfSecond, destination);
+        } else {
+            final var millis = nanoOfSecond / 1_000_000;
+
+            destination.append((char) ('0' + millis / 100))
+                .append((char) ('0' + millis / 10 % 10))
+                .append((char) ('0' + millis % 10));
+        }
+        destination.append(second.suffix);
+    }
+
+    private static void appendTrimmedFraction(final int nanoOfSecond, final StringBuilder destination) {
+        if (nanoOfSecond == 0) {
+            return;
+        }
+        var digits = 9;
+        var fraction = nanoOfSecond;
+
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits -= 1;
+        }
+        var divisor = 1;
+        for (int i = 1; i < digits; i += 1) {
+            divisor *= 10;
+        }
+        destination.append('.');
+        for (; divisor > 0; divisor /= 10) {
+            destination.append((char) ('0' + fraction / divisor % 10));
+        }
+    }
 }
 
 // this is chat gpt generated formatter
 class PrettyFormatter implements Formatter {
-    private static final DateTimeFormatter TIME_FORMATTER =
-        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS Z");
+    private final CachedTimestampEncoder timestampEncoder = CachedTimestampEncoder.pretty();
 
     @Override
     public String format(LogEvent event) {
-        return String.format("[%s] [%-5s] - %s",
-            event.timestamp.format(TIME_FORMATTER),
-            event.level,
-            event.msg);
+        final var line = new StringBuilder(64 + event.message().length());
+
+        formatTo(event, line);
+        return line.toString();
+    }
+
+    // [timestamp] [level padded to 5] - message
+    @Override
+    public void formatTo(LogEvent event, StringBuilder destination) {
+        final var level = event.level.name();
+
+        destination.append('[');
+        timestampEncoder.encode(event.epochNanos, destination);
+        destination.append("] [").append(level);
+        for (int i = level.length(); i < 5; i += 1) {
+            destination.append(' ');
+        }
+        destination.append("] - ");
+        event.appendMessageTo(destination);
     }
 }
 
 class SimpleTextFormatter implements Formatter {
+    private final CachedTimestampEncoder timestampEncoder = CachedTimestampEncoder.iso();
+
+    @Override
+    public String format(LogEvent event) {
+        final var line = new StringBuilder(64 + event.message().length());
+
+        formatTo(event, line);
+        return line.toString();
+    }
+
+    @Override
+    public void formatTo(LogEvent event, StringBuilder destination) {
+        timestampEncoder.encode(event.epochNanos, destination);
+        destination.append(' ').append(event.level.name()).append(' ');
+        event.appendMessageTo(destination);
+    }
+}
+
+// the zone offset in force from one transition to the next, so it is only looked up again at a DST change
+class OffsetPeriod {
+    final long fromEpochSecond;
+    final long untilEpochSecond;
+    final ZoneOffset offset;
+
+    OffsetPeriod(final long fromEpochSecond, final long untilEpochSecond, final ZoneOffset offset) {
+        this.fromEpochSecond = fromEpochSecond;
+        this.untilEpochSecond = untilEpochSecond;
+        this.offset = offset;
+    }
+}
+
+// SimpleTextFormatter's layout and zone, with the timestamp written digit by digit straight into the builder
+class GarbageFreeFormatter implements Formatter {
+    private final ZoneRules zoneRules = ZoneId.systemDefault().getRules();
+    private volatile OffsetPeriod offsetPeriod = new OffsetPeriod(Long.MAX_VALUE, Long.MIN_VALUE, ZoneOffset.UTC);
 
     @Override
     public String format(LogEvent event) {
-        return String.format("%s %s %s",
-            event.timestamp.format(DateTimeFormatter.ISO_DATE_TIME),
-            event.level,
-            event.msg
-        );
+        final var line = new StringBuilder(64 + event.message().length());
+
+        formatTo(event, line);
+        return line.toString();
+    }
+
+    @Override
+    public void formatTo(LogEvent event, StringBuilder destination) {
+        appendTimestamp(event.epochNanos, destination);
+        destination.append(' ').append(event.level.name()).append(' ');
+        event.appendMessageTo(destination);
+    }
+
+    private ZoneOffset offsetAt(final long epochNanos) {
+        final var epochSecond = Math.floorDiv(epochNanos, 1_000_000_000L);
+        var period = offsetPeriod;
+
+        if (epochSecond < period.fromEpochSecond || epochSecond >= period.untilEpochSecond) {
+            final var instant = Instant.ofEpochSecond(epochSecond);
+            final var next = zoneRules.nextTransition(instant);
+
+            period = new OffsetPeriod(epochSecond, next == null ? Long.MAX_VALUE : next.toEpochSecond(),
+                zoneRules.getOffset(instant));
+            offsetPeriod = period;
+        }
+        return period.offset;
+    }
+
+    // yyyy-MM-ddTHH:mm:ss.SSS followed by the offset id (Z for UTC), the civil date is derived from the epoch day
+    // as in Howard Hinnant's algorithm
+    void appendTimestamp(final long epochNanos, final StringBuilder destination) {
+        final var offset = offsetAt(epochNanos);
+        final var epochMillis = Math.floorDiv(epochNanos, 1_000_000L) + offset.getTotalSeconds() * 1000L;
+        final var epochDay = Math.floorDiv(epochMillis, 86_400_000L);
+        final var millisOfDay = (int) Math.floorMod(epochMillis, 86_400_000L);
+
+        final var shiftedDay = epochDay + 719_468L;
+        final var era = Math.floorDiv(shiftedDay, 146_097L);
+        final var dayOfEra = shiftedDay - era * 146_097L;
+        final var yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        final var dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final var monthIndex = (5 * dayOfYear + 2) / 153;
+        final var day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        final var month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        final var year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        destination.append(year).append('-');
+        appendTwoDigits(month, destination);
+        destination.append('-');
+        appendTwoDigits(day, destination);
+        destination.append('T');
+        appendTwoDigits(millisOfDay / 3_600_000, destination);
+        destination.append(':');
+        appendTwoDigits(millisOfDay / 60_000 % 60, destination);
+        destination.append(':');
+        appendTwoDigits(millisOfDay / 1000 % 60, destination);
+        destination.append('.');
+        final var millis = millisOfDay % 1000;
+        destination.append((char) ('0' + millis / 100));
+        appendTwoDigits(millis % 100, destination);
+        destination.append(offset.getId());
+    }
+
+    private static void appendTwoDigits(final int value, final StringBuilder destination) {
+        destination.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}
+
+// reusable formatting and UTF-8 encoding state, kept per thread so turning an event into bytes allocates nothing
+class LineEncoder {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final StringBuilder text = new StringBuilder(256);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private char[] chars = new char[256];
+    private CharBuffer charView = CharBuffer.wrap(chars);
+    private ByteBuffer bytes = ByteBuffer.allocate(chars.length * 3);
+
+    // the returned buffer holds the encoded line and is only valid until the next call
+    ByteBuffer encode(final LogEvent event, final Formatter formatter) {
+        text.setLength(0);
+        formatter.formatTo(event, text);
+        text.append(LINE_SEPARATOR);
+
+        final var length = text.length();
+        if (length > chars.length) {
+            // only grows, so the steady state stops allocating once the longest line has been seen
+            chars = new char[Math.max(length, chars.length * 2)];
+            charView = CharBuffer.wrap(chars);
+            bytes = ByteBuffer.allocate(chars.length * 3);
+        }
+        text.getChars(0, length, chars, 0);
+        charView.clear().limit(length);
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(charView, bytes, true);
+        encoder.flush(bytes);
+        return bytes.flip();
     }
 }
 
 interface Appender {
     void append(LogEvent event);
     void close();
+
+    // false when append would drop every event of this level anyway
+    default boolean isEnabled(LogLevel level) {
+        return true;
+    }
 }
 
 class ConsoleAppender implements Appender {
 
     private Formatter formatter;
     private Filter filter;
+    private final ThreadLocal<LineEncoder> lineEncoders = ThreadLocal.withInitial(LineEncoder::new);
 
     public ConsoleAppender(Formatter formatter, Filter filter) {
         this.formatter = formatter;
         this.filter = filter;
     }
 
+    @Override
+    public boolean isEnabled(LogLevel level) {
+        return !filter.filtersOutLevel(level);
+    }
+
     @Override
     public void append(LogEvent event) {
         if (filter.accept(event)) {
             return;
         }
-        final var formattedResponse = formatter.format(event);
-        System.out.println(formattedResponse);
+        // one write per line keeps lines from different threads whole
+        final var line = lineEncoders.get().encode(event, formatter);
+
+        System.out.write(line.array(), 0, line.limit());
     }
 
     @Override
@@ -103,91 +647,1706 @@ class ConsoleAppender implements Appender {
 
 class FileAppender implements Appender {
 
-    private final File file;
     private final Formatter formatter;
     private final Filter filter;
-    private FileWriter fileWriter;
+    private final ThreadLocal<LineEncoder> lineEncoders = ThreadLocal.withInitial(LineEncoder::new);
+    private FileChannel channel;
 
     public FileAppender(Formatter formatter, Filter filter, String filePath) {
         this.formatter = formatter;
         this.filter = filter;
-        this.file = new File(filePath);
 
         try {
-            fileWriter = new FileWriter(file, true);
+            channel = FileChannel.open(Path.of(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
 
+    @Override
+    public boolean isEnabled(LogLevel level) {
+        return !filter.filtersOutLevel(level);
+    }
+
     @Override
     public void append(LogEvent event) {
         if (filter.accept(event)) {
             return;
         }
-        final var formattedResponse = formatter.format(event);
+        // the line goes straight to the OS with no buffering in between, as the flushed FileWriter did
+        final var line = lineEncoders.get().encode(event, formatter);
+
         try {
-            fileWriter.write(formattedResponse + System.lineSeparator());
-            fileWriter.flush();
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
-        System.out.println(formattedResponse);
+        System.out.write(line.array(), 0, line.limit());
     }
 
     @Override
     public void close() {
         try {
-            fileWriter.close();
+            channel.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 }
 
-class Logger {
-    private static Logger loggerInstance;
-    private final List<Appender> appenders = new ArrayList<>();
+enum QueueFullPolicy {
+    // the caller waits for the writer to free a slot
+    BLOCK,
+    // DEBUG events are thrown away, everything else still waits
+    DROP_DEBUG,
+    // any event that does not fit is thrown away
+    DROP_ALL
+}
 
-    private Logger() {
+// bounded multi-producer single-consumer ring, Disruptor-style: the slots are preallocated events, a producer
+// claims a sequence with a CAS, copies its event into that slot and then publishes the sequence number, and the
+// writer thread consumes published slots in sequence order. Nothing is allocated per event
+class LogEventRingBuffer {
+    private final LogEvent[] slots;
+    private final AtomicLongArray publishedSequences;
+    private final int mask;
+    private final AtomicLong claimSequence = new AtomicLong();
+    private volatile long consumeSequence;
+
+    LogEventRingBuffer(final int capacity) {
+        var size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new LogEvent[size];
+        this.publishedSequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i += 1) {
+            slots[i] = new LogEvent();
+            publishedSequences.set(i, -1L);
+        }
+    }
 
+    // false when every slot is taken; the event is copied, so the caller may reuse it right away
+    boolean offer(final LogEvent event) {
+        while (true) {
+            final var sequence = claimSequence.get();
+
+            if (sequence - consumeSequence >= slots.length) {
+                return false;
+            }
+            if (claimSequence.compareAndSet(sequence, sequence + 1)) {
+                final var index = (int) (sequence & mask);
+
+                slots[index].copyFrom(event);
+                publishedSequences.lazySet(index, sequence);
+                return true;
+            }
+        }
     }
 
-    public void addAppenders(final Appender appender) {
-        appenders.add(appender);
+    boolean isEmpty() {
+        return consumeSequence == claimSequence.get();
     }
 
-    public static Logger getLoggerInstance() {
-        if (loggerInstance == null) {
-            loggerInstance = new Logger();
+    // single consumer only; stops early at a slot that was claimed but not published yet. Slots are handed back
+    // to producers only after the whole batch was consumed
+    int drainTo(final Consumer<LogEvent> consumer) {
+        var sequence = consumeSequence;
+        final var claimed = claimSequence.get();
+        var drained = 0;
+
+        while (sequence < claimed) {
+            final var index = (int) (sequence & mask);
+
+            if (publishedSequences.get(index) != sequence) {
+                break;
+            }
+            consumer.accept(slots[index]);
+            sequence += 1;
+            drained += 1;
+        }
+        consumeSequence = sequence;
+        return drained;
+    }
+}
+
+// callers only filter and enqueue; a dedicated writer thread encodes the events into a batch buffer of batchSize
+// bytes that reaches the file when it fills up or when flushIntervalMillis has passed since the last flush
+class AsyncFileAppender implements Appender {
+    private static final long IDLE_PARK_NANOS = 100_000L;
+
+    private final Formatter formatter;
+    private final Filter filter;
+    private final QueueFullPolicy queueFullPolicy;
+    private final LogEventRingBuffer ringBuffer;
+    private final long flushIntervalNanos;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final Thread writerThread;
+    private final LineEncoder lineEncoder = new LineEncoder();
+    // bound once, a method reference in the drain loop would allocate on every pass
+    private final Consumer<LogEvent> eventWriter = this::write;
+    private final ByteBuffer batch;
+    private volatile boolean running = true;
+    private FileChannel channel;
+    private long lastFlushTime;
+
+    public AsyncFileAppender(final Formatter formatter, final Filter filter, final String filePath) {
+        this(formatter, filter, filePath, 8192, 64 * 1024, 1000L, QueueFullPolicy.BLOCK);
+    }
+
+    public AsyncFileAppender(final Formatter formatter, final Filter filter, final String filePath,
+                             final int queueCapacity, final int batchSize, final long flushIntervalMillis,
+                             final QueueFullPolicy queueFullPolicy) {
+        this.formatter = formatter;
+        this.filter = filter;
+        this.queueFullPolicy = queueFullPolicy;
+        this.ringBuffer = new LogEventRingBuffer(queueCapacity);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.batch = ByteBuffer.allocateDirect(batchSize);
+
+        try {
+            channel = FileChannel.open(Path.of(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 
-        return loggerInstance;
+        this.writerThread = new Thread(this::runWriter, "async-file-appender");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
     }
 
-    public void info(final String msg) {
-        final var logEvent = new LogEvent(msg, LogLevel.INFO, ZonedDateTime.now());
-        appenders.forEach(appender -> appender.append(logEvent));
+    @Override
+    public boolean isEnabled(LogLevel level) {
+        return !filter.filtersOutLevel(level);
     }
 
-    public void warn(final String msg) {
-        final var logEvent = new LogEvent(msg, LogLevel.WARN, ZonedDateTime.now());
-        appenders.forEach(appender -> appender.append(logEvent));
+    @Override
+    public void append(LogEvent event) {
+        if (filter.accept(event) || ringBuffer.offer(event)) {
+            return;
+        }
+        if (queueFullPolicy == QueueFullPolicy.DROP_ALL
+            || (queueFullPolicy == QueueFullPolicy.DROP_DEBUG && event.level == LogLevel.DEBUG)) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        while (!ringBuffer.offer(event)) {
+            if (!running) {
+                droppedEvents.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
     }
 
-    public void error(final String msg) {
-        final var logEvent = new LogEvent(msg, LogLevel.ERROR, ZonedDateTime.now());
-        appenders.forEach(appender -> appender.append(logEvent));
+    long droppedEvents() {
+        return droppedEvents.get();
     }
 
-    public void debug(final String msg) {
-        final var logEvent = new LogEvent(msg, LogLevel.DEBUG, ZonedDateTime.now());
-        appenders.forEach(appender -> appender.append(logEvent));
+    private void runWriter() {
+        lastFlushTime = System.nanoTime();
+
+        while (running) {
+            if (ringBuffer.drainTo(eventWriter) == 0) {
+                flushIfDue();
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            } else {
+                flushIfDue();
+            }
+        }
+    }
+
+    private void write(final LogEvent event) {
+        final var line = lineEncoder.encode(event, formatter);
+
+        if (line.remaining() > batch.remaining()) {
+            flush();
+        }
+        if (line.remaining() > batch.capacity()) {
+            writeFully(line);
+            return;
+        }
+        batch.put(line);
+    }
+
+    private void flushIfDue() {
+        if (batch.position() > 0 && System.nanoTime() - lastFlushTime >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        batch.flip();
+        writeFully(batch);
+        batch.clear();
+        lastFlushTime = System.nanoTime();
+    }
+
+    private void writeFully(final ByteBuffer source) {
+        try {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
+    // stops the writer, then writes whatever is still queued before closing the file
+    @Override
     public void close() {
-        appenders.forEach(Appender::close);
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ringBuffer.drainTo(eventWriter);
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (droppedEvents.get() > 0) {
+            System.err.println("async file appender dropped " + droppedEvents.get() + " events");
+        }
+    }
+}
+
+// one mapped window of the log file; writers reserve their bytes by advancing position atomically
+class MappedRegion {
+    final MappedByteBuffer buffer;
+    final long fileOffset;
+    final AtomicInteger position = new AtomicInteger();
+
+    MappedRegion(final MappedByteBuffer buffer, final long fileOffset) {
+        this.buffer = buffer;
+        this.fileOffset = fileOffset;
+    }
+}
+
+// encoded lines are copied straight into a mapped region of the file, so there is no write call per line and no
+// lock: each thread reserves its range with getAndAdd and writes into it. The thread whose range crosses the
+// region end maps the next region right where the data ends, everybody else waits for it and retries
+class MappedFileAppender implements Appender {
+    // published when the file can't be mapped, so waiting writers stop spinning and later events are dropped
+    private static final MappedRegion FAILED = new MappedRegion(null, -1L);
+
+    private final Formatter formatter;
+    private final Filter filter;
+    private final int regionSize;
+    private final ThreadLocal<LineEncoder> lineEncoders = ThreadLocal.withInitial(LineEncoder::new);
+    private FileChannel channel;
+    private volatile MappedRegion currentRegion;
+
+    public MappedFileAppender(final Formatter formatter, final Filter filter, final String filePath) {
+        this(formatter, filter, filePath, 16 * 1024 * 1024);
+    }
+
+    public MappedFileAppender(final Formatter formatter, final Filter filter, final String filePath,
+                              final int regionSize) {
+        this.formatter = formatter;
+        this.filter = filter;
+        this.regionSize = regionSize;
+
+        try {
+            channel = FileChannel.open(Path.of(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            currentRegion = map(endOfData(), regionSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            currentRegion = FAILED;
+        }
+    }
+
+    // a run that was killed before close() leaves its last region zero filled, new lines go after the real data
+    private long endOfData() throws IOException {
+        final var fileSize = channel.size();
+        final var tailSize = (int) Math.min(fileSize, regionSize);
+        final var tail = channel.map(FileChannel.MapMode.READ_ONLY, fileSize - tailSize, tailSize);
+        var end = tailSize;
+
+        while (end > 0 && tail.get(end - 1) == 0) {
+            end -= 1;
+        }
+        return fileSize - tailSize + end;
+    }
+
+    private MappedRegion map(final long fileOffset, final int size) throws IOException {
+        return new MappedRegion(channel.map(FileChannel.MapMode.READ_WRITE, fileOffset, size), fileOffset);
+    }
+
+    @Override
+    public boolean isEnabled(LogLevel level) {
+        return !filter.filtersOutLevel(level);
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        if (filter.accept(event)) {
+            return;
+        }
+        final var line = lineEncoders.get().encode(event, formatter);
+        final var length = line.remaining();
+
+        while (true) {
+            final var region = currentRegion;
+
+            if (region == FAILED) {
+                return;
+            }
+            final var offset = region.position.getAndAdd(length);
+            final var capacity = region.buffer.capacity();
+
+            if (offset + length <= capacity) {
+                region.buffer.put(offset, line, 0, length);
+                return;
+            }
+            if (offset <= capacity) {
+                // exactly one writer straddles the end, it moves everyone on to the next region
+                try {
+                    currentRegion = map(region.fileOffset + offset, Math.max(regionSize, length));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    currentRegion = FAILED;
+                    return;
+                }
+            } else {
+                while (currentRegion == region) {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+
+    // expects appends to have stopped; forces the data to disk and cuts off the unused part of the region
+    @Override
+    public void close() {
+        final var region = currentRegion;
+
+        try {
+            if (region == FAILED) {
+                // whatever made it into earlier regions is already in the file, a reopen skips their zero tail
+                if (channel != null) {
+                    channel.close();
+                }
+                return;
+            }
+            final var used = Math.min(region.position.get(), region.buffer.capacity());
+
+            region.buffer.force();
+            channel.truncate(region.fileOffset + used);
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
+
+// rolls systemLogs.log over to an archive once it would grow past maxFileSize or when the clock crosses the next
+// multiple of rolloverIntervalMillis; archives are gzipped and pruned on a background thread, so appends only ever
+// pay for a rename. Writes and rollovers share one lock, which keeps every event in exactly one file
+class RollingFileAppender implements Appender {
+    private static final DateTimeFormatter ARCHIVE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+        .withZone(ZoneId.systemDefault());
+    // what follows "<active file>." in an archive that is not compressed yet, or is halfway through it
+    private static final Pattern UNCOMPRESSED_SUFFIX = Pattern.compile("\\d{8}-\\d{6}-\\d{3}(\\.gz\\.tmp)?");
+
+    private final Formatter formatter;
+    private final Filter filter;
+    private final Path activeFile;
+    private final long maxFileSize;
+    private final long rolloverIntervalMillis;
+    private final int maxArchives;
+    private final long maxArchiveBytes;
+    private final ThreadLocal<LineEncoder> lineEncoders = ThreadLocal.withInitial(LineEncoder::new);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ExecutorService compressor;
+    private FileChannel channel;
+    private long fileSize;
+    private long nextRolloverTime;
+    private long lastArchiveTime;
+
+    // rolls at 10MB or on the hour, whichever comes first, keeping the last 10 archives and at most 100MB of them
+    public RollingFileAppender(final Formatter formatter, final Filter filter, final String filePath) {
+        this(formatter, filter, filePath, 10L * 1024 * 1024, TimeUnit.HOURS.toMillis(1), 10, 100L * 1024 * 1024);
+    }
+
+    public RollingFileAppender(final Formatter formatter, final Filter filter, final String filePath,
+                               final long maxFileSize, final long rolloverIntervalMillis,
+                               final int maxArchives, final long maxArchiveBytes) {
+        this.formatter = formatter;
+        this.filter = filter;
+        this.activeFile = Path.of(filePath).toAbsolutePath();
+        this.maxFileSize = maxFileSize;
+        this.rolloverIntervalMillis = rolloverIntervalMillis;
+        this.maxArchives = maxArchives;
+        this.maxArchiveBytes = maxArchiveBytes;
+        this.compressor = Executors.newSingleThreadExecutor(task -> {
+            final var thread = new Thread(task, "log-compressor");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.nextRolloverTime = nextBoundaryAfter(System.currentTimeMillis());
+
+        try {
+            openActiveFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        compressor.execute(this::recoverArchives);
+    }
+
+    private long nextBoundaryAfter(final long now) {
+        return rolloverIntervalMillis > 0 ? (now / rolloverIntervalMillis + 1) * rolloverIntervalMillis : Long.MAX_VALUE;
+    }
+
+    private void openActiveFile() throws IOException {
+        channel = FileChannel.open(activeFile, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    @Override
+    public boolean isEnabled(LogLevel level) {
+        return !filter.filtersOutLevel(level);
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        if (filter.accept(event)) {
+            return;
+        }
+        final var line = lineEncoders.get().encode(event, formatter);
+        final var length = line.remaining();
+
+        writeLock.lock();
+        try {
+            final var now = System.currentTimeMillis();
+
+            if (now >= nextRolloverTime || (fileSize > 0 && fileSize + length > maxFileSize)) {
+                rollover(now);
+            }
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            fileSize += length;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // caller holds writeLock
+    private void rollover(final long now) throws IOException {
+        nextRolloverTime = nextBoundaryAfter(now);
+        if (fileSize == 0) {
+            return;
+        }
+        // archive names sort in rollover order, so the time is bumped when two rollovers share a millisecond
+        lastArchiveTime = Math.max(now, lastArchiveTime + 1);
+        final var archive = activeFile.resolveSibling(
+            activeFile.getFileName() + "." + ARCHIVE_TIME.format(Instant.ofEpochMilli(lastArchiveTime)));
+
+        channel.close();
+        final var archived = moveToArchive(archive);
+
+        // reopened either way, a failed move keeps appending to the file that could not be rolled
+        openActiveFile();
+        if (archived) {
+            compressor.execute(() -> compressAndPrune(archive));
+        }
+    }
+
+    private boolean moveToArchive(final Path archive) {
+        try {
+            Files.move(activeFile, archive);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // archives a crash left uncompressed are compressed now, half written .gz.tmp files are dropped and redone
+    private void recoverArchives() {
+        final var prefix = activeFile.getFileName() + ".";
+        final List<Path> leftovers;
+
+        try (final var siblings = Files.list(activeFile.getParent())) {
+            leftovers = siblings
+                .filter(path -> path.getFileName().toString().startsWith(prefix))
+                .filter(path -> UNCOMPRESSED_SUFFIX.matcher(
+                    path.getFileName().toString().substring(prefix.length())).matches())
+                .sorted(Comparator.comparing(Path::getFileName))
+                .collect(Collectors.toList());
+
+            for (final var leftover : leftovers) {
+                if (leftover.getFileName().toString().endsWith(".gz.tmp")) {
+                    Files.deleteIfExists(leftover);
+                } else {
+                    compressAndPrune(leftover);
+                }
+            }
+            pruneArchives();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void compressAndPrune(final Path archive) {
+        final var compressed = archive.resolveSibling(archive.getFileName() + ".gz");
+        final var partial = archive.resolveSibling(archive.getFileName() + ".gz.tmp");
+
+        try {
+            try (final var output = new GZIPOutputStream(Files.newOutputStream(partial), 64 * 1024)) {
+                Files.copy(archive, output);
+            }
+            Files.move(partial, compressed, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(archive);
+            pruneArchives();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // newest archives are kept until either the count or the byte budget runs out
+    private void pruneArchives() throws IOException {
+        final var prefix = activeFile.getFileName() + ".";
+        final List<Path> archives;
+
+        try (final var siblings = Files.list(activeFile.getParent())) {
+            archives = siblings
+                .filter(path -> path.getFileName().toString().startsWith(prefix))
+                .filter(path -> path.getFileName().toString().endsWith(".gz"))
+                .sorted(Comparator.comparing(Path::getFileName).reversed())
+                .collect(Collectors.toList());
+        }
+
+        var keptBytes = 0L;
+        for (int i = 0; i < archives.size(); i += 1) {
+            keptBytes += Files.size(archives.get(i));
+            if (i >= maxArchives || keptBytes > maxArchiveBytes) {
+                Files.delete(archives.get(i));
+            }
+        }
+    }
+
+    // waits for pending compressions, so every rolled file is archived by the time close returns
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Record layout shared by BinaryLogEncoder and BinaryLogReader. Every record is [varint body length][type][body]:
+//   SESSION  zigzag varint absolute epoch nanos; resets the timestamp base and the template table
+//   TEMPLATE varint id, varint length, UTF-8 template text; written the first time a session sees a template
+//   EVENT    zigzag varint nanos since the previous event, level ordinal byte, varint template id,
+//            varint argument count, then per argument varint length and UTF-8 text
+//   LITERAL  zigzag varint nanos since the previous event, level ordinal byte, varint length, UTF-8 message;
+//            used for messages logged without arguments
+class BinaryLogFormat {
+    static final byte SESSION = 0;
+    static final byte TEMPLATE = 1;
+    static final byte EVENT = 2;
+    static final byte LITERAL = 3;
+
+    static void putVarLong(final ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(final ByteBuffer buffer) {
+        var value = 0L;
+        var shift = 0;
+        byte current;
+
+        do {
+            current = buffer.get();
+            value |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while (current < 0);
+        return value;
+    }
+
+    static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int utf8Length(final CharSequence text) {
+        var length = 0;
+
+        for (int i = 0; i < text.length(); i += 1) {
+            final var c = text.charAt(i);
+
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i += 1;
+            } else {
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    // utf8Length is the result of utf8Length(text); unpaired surrogates are written as '?' like String.getBytes does
+    static void putText(final ByteBuffer buffer, final CharSequence text, final int utf8Length) {
+        putVarLong(buffer, utf8Length);
+        for (int i = 0; i < text.length(); i += 1) {
+            final var c = text.charAt(i);
+
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final var codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+
+                buffer.put((byte) (0xF0 | (codePoint >> 18)))
+                    .put((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+                    .put((byte) (0x80 | ((codePoint >> 6) & 0x3F)))
+                    .put((byte) (0x80 | (codePoint & 0x3F)));
+                i += 1;
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)))
+                    .put((byte) (0x80 | ((c >> 6) & 0x3F)))
+                    .put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
+
+// the binary counterpart of a Formatter: turns events into records, interning templates along the way. Nothing is
+// allocated per event once the buffers have grown, apart from the table entry for a template seen for the first time.
+// Not thread safe, the appender calls it under its lock since records depend on the ones before them
+class BinaryLogEncoder {
+    // a full table starts a new session, which empties it here and in the reader
+    private static final int MAX_TEMPLATES = 4096;
+
+    private final Map<String, Integer> templateIds = new HashMap<>();
+    private final StringBuilder argumentText = new StringBuilder(64);
+    private ByteBuffer record = ByteBuffer.allocate(4096);
+    private ByteBuffer output = ByteBuffer.allocate(4096 + 10);
+    private long previousEpochNanos;
+    private boolean sessionStarted;
+
+    // SESSION and TEMPLATE records this event needs come first in the returned buffer, which is reused per call
+    ByteBuffer encode(final LogEvent event) {
+        output.clear();
+        if (!sessionStarted) {
+            startSession(event.epochNanos);
+        }
+
+        final var argumentCount = event.argumentCount();
+
+        if (event.template == null || argumentCount == 0) {
+            // messages without arguments rarely repeat exactly, interning them would only grow the table
+            final var message = event.message();
+            final var length = BinaryLogFormat.utf8Length(message);
+
+            record.clear();
+            ensureRecordCapacity(10 + 1 + 5 + length);
+            putEventHeader(event);
+            BinaryLogFormat.putText(record, message, length);
+            appendRecord(BinaryLogFormat.LITERAL);
+            return output.flip();
+        }
+
+        var templateId = templateIds.get(event.template);
+
+        if (templateId == null) {
+            if (templateIds.size() == MAX_TEMPLATES) {
+                startSession(event.epochNanos);
+            }
+            templateId = templateIds.size();
+            templateIds.put(event.template, templateId);
+            final var length = BinaryLogFormat.utf8Length(event.template);
+
+            record.clear();
+            ensureRecordCapacity(5 + 5 + length);
+            BinaryLogFormat.putVarLong(record, templateId);
+            BinaryLogFormat.putText(record, event.template, length);
+            appendRecord(BinaryLogFormat.TEMPLATE);
+        }
+
+        record.clear();
+        ensureRecordCapacity(10 + 1 + 5 + 5);
+        putEventHeader(event);
+        BinaryLogFormat.putVarLong(record, templateId);
+        BinaryLogFormat.putVarLong(record, argumentCount);
+        for (int i = 0; i < argumentCount; i += 1) {
+            argumentText.setLength(0);
+            ParameterizedMessage.appendArgument(event.argument(i), argumentText);
+            final var length = BinaryLogFormat.utf8Length(argumentText);
+
+            ensureRecordCapacity(record.position() + 5 + length);
+            BinaryLogFormat.putText(record, argumentText, length);
+        }
+        appendRecord(BinaryLogFormat.EVENT);
+        return output.flip();
+    }
+
+    private void startSession(final long epochNanos) {
+        sessionStarted = true;
+        templateIds.clear();
+        previousEpochNanos = epochNanos;
+        record.clear();
+        BinaryLogFormat.putVarLong(record, BinaryLogFormat.zigZag(epochNanos));
+        appendRecord(BinaryLogFormat.SESSION);
+    }
+
+    private void putEventHeader(final LogEvent event) {
+        BinaryLogFormat.putVarLong(record, BinaryLogFormat.zigZag(event.epochNanos - previousEpochNanos));
+        record.put((byte) event.level.ordinal());
+        previousEpochNanos = event.epochNanos;
+    }
+
+    // keeps what has been written so far
+    private void ensureRecordCapacity(final int size) {
+        if (record.capacity() < size) {
+            final var grown = ByteBuffer.allocate(Math.max(size, record.capacity() * 2));
+
+            record.flip();
+            record = grown.put(record);
+        }
+    }
+
+    private void appendRecord(final byte type) {
+        record.flip();
+        if (output.remaining() < record.remaining() + 11) {
+            final var grown = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + record.remaining() + 11));
+
+            output.flip();
+            output = grown.put(output);
+        }
+        BinaryLogFormat.putVarLong(output, record.remaining() + 1);
+        output.put(type).put(record);
+    }
+}
+
+// writes BinaryLogEncoder records to a file; each append is a single write under the lock
+class BinaryFileAppender implements Appender {
+    private final Filter filter;
+    private final BinaryLogEncoder encoder = new BinaryLogEncoder();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private FileChannel channel;
+
+    public BinaryFileAppender(final Filter filter, final String filePath) {
+        this.filter = filter;
+
+        try {
+            channel = FileChannel.open(Path.of(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isEnabled(LogLevel level) {
+        return !filter.filtersOutLevel(level);
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        if (filter.accept(event)) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            final var records = encoder.encode(event);
+
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
+
+// streams a binary log through memory-mapped windows, so files larger than one mapping are fine; records outside
+// the time range or below the level only have their header decoded and are skipped by length
+class BinaryLogReader {
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final Path file;
+
+    BinaryLogReader(final Path file) {
+        this.file = file;
+    }
+
+    // fromEpochNanos inclusive, toEpochNanos exclusive; the event handed to the consumer is reused
+    void read(final long fromEpochNanos, final long toEpochNanos, final LogLevel minimumLevel,
+              final Consumer<LogEvent> consumer) throws IOException {
+        final var levels = LogLevel.values();
+        final var templates = new ArrayList<String>();
+        final var event = new LogEvent();
+        var epochNanos = 0L;
+
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final var fileSize = channel.size();
+            var windowStart = 0L;
+            var windowLimit = WINDOW_SIZE;
+
+            while (windowStart < fileSize) {
+                final var windowSize = Math.min(windowLimit, fileSize - windowStart);
+                final var window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                var recordStart = 0;
+
+                while (true) {
+                    window.position(recordStart);
+                    // a record cut off by the window end is read again from the start of the next window
+                    if (window.remaining() < 10 && windowStart + windowSize < fileSize) {
+                        break;
+                    }
+                    if (!window.hasRemaining()) {
+                        break;
+                    }
+                    final var bodyLength = BinaryLogFormat.getVarLong(window);
+
+                    if (bodyLength > window.remaining()) {
+                        if (windowStart + windowSize >= fileSize) {
+                            System.err.println("truncated record at offset " + (windowStart + recordStart));
+                            return;
+                        }
+                        // a single record larger than the window: the next one is mapped just big enough to hold it
+                        if (recordStart == 0) {
+                            final var recordSize = window.position() + bodyLength;
+
+                            if (recordSize > Integer.MAX_VALUE) {
+                                throw new IOException("record at offset " + windowStart + " is "
+                                    + recordSize + " bytes, more than a mapped window can hold");
+                            }
+                            windowLimit = recordSize;
+                        }
+                        break;
+                    }
+                    final var nextRecord = window.position() + (int) bodyLength;
+                    final var type = window.get();
+
+                    if (type == BinaryLogFormat.SESSION) {
+                        epochNanos = BinaryLogFormat.unZigZag(BinaryLogFormat.getVarLong(window));
+                        templates.clear();
+                    } else if (type == BinaryLogFormat.TEMPLATE) {
+                        final var templateId = (int) BinaryLogFormat.getVarLong(window);
+
+                        while (templates.size() <= templateId) {
+                            templates.add(null);
+                        }
+                        templates.set(templateId, readText(window));
+                    } else if (type == BinaryLogFormat.EVENT) {
+                        epochNanos += BinaryLogFormat.unZigZag(BinaryLogFormat.getVarLong(window));
+                        final var level = levels[window.get()];
+
+                        if (epochNanos >= fromEpochNanos && epochNanos < toEpochNanos
+                            && level.compareTo(minimumLevel) >= 0) {
+                            final var template = templates.get((int) BinaryLogFormat.getVarLong(window));
+                            final var arguments = new Object[(int) BinaryLogFormat.getVarLong(window)];
+
+                            for (int i = 0; i < arguments.length; i += 1) {
+                                arguments[i] = readText(window);
+                            }
+                            consumer.accept(event.set(null, level, epochNanos).withTemplate(template, arguments));
+                        }
+                    } else if (type == BinaryLogFormat.LITERAL) {
+                        epochNanos += BinaryLogFormat.unZigZag(BinaryLogFormat.getVarLong(window));
+                        final var level = levels[window.get()];
+
+                        if (epochNanos >= fromEpochNanos && epochNanos < toEpochNanos
+                            && level.compareTo(minimumLevel) >= 0) {
+                            consumer.accept(event.set(readText(window), level, epochNanos));
+                        }
+                    }
+                    recordStart = nextRecord;
+                }
+                if (recordStart > 0) {
+                    windowLimit = WINDOW_SIZE;
+                }
+                windowStart += recordStart;
+            }
+        }
+    }
+
+    private static String readText(final ByteBuffer buffer) {
+        final var bytes = new byte[(int) BinaryLogFormat.getVarLong(buffer)];
+
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // BinaryLogReader <file> [minimum level] [from ISO instant] [to ISO instant], prints matching records as text
+    public static void main(String[] args) throws IOException {
+        final var minimumLevel = args.length > 1 ? LogLevel.valueOf(args[1]) : LogLevel.DEBUG;
+        final var from = args.length > 2 ? toEpochNanos(Instant.parse(args[2])) : Long.MIN_VALUE;
+        final var to = args.length > 3 ? toEpochNanos(Instant.parse(args[3])) : Long.MAX_VALUE;
+        final var formatter = new SimpleTextFormatter();
+        final var line = new StringBuilder(256);
+
+        new BinaryLogReader(Path.of(args[0])).read(from, to, minimumLevel, event -> {
+            line.setLength(0);
+            formatter.formatTo(event, line);
+            System.out.println(line);
+        });
+    }
+
+    private static long toEpochNanos(final Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+}
+
+// substitutes "{}" placeholders in order; surplus placeholders stay as they are, surplus arguments are ignored
+// expands the {} placeholders of a parameterized event straight into a builder, no String in between
+class ParameterizedMessage {
+
+    static void formatTo(final LogEvent event, final StringBuilder destination) {
+        final var pattern = event.template;
+        var start = 0;
+
+        for (int i = 0; i < event.argumentCount(); i += 1) {
+            final var placeholder = pattern.indexOf("{}", start);
+
+            if (placeholder < 0) {
+                break;
+            }
+            destination.append(pattern, start, placeholder);
+            appendArgument(event.argument(i), destination);
+            start = placeholder + 2;
+        }
+        destination.append(pattern, start, pattern.length());
+    }
+
+    // same text as String.valueOf, without the intermediate String for the common boxed and character types
+    static void appendArgument(final Object argument, final StringBuilder destination) {
+        if (argument instanceof Integer || argument instanceof Long
+            || argument instanceof Short || argument instanceof Byte) {
+            destination.append(((Number) argument).longValue());
+        } else if (argument instanceof Boolean) {
+            destination.append(((Boolean) argument).booleanValue());
+        } else if (argument instanceof Character) {
+            destination.append(((Character) argument).charValue());
+        } else if (argument instanceof CharSequence) {
+            destination.append((CharSequence) argument);
+        } else {
+            destination.append(argument);
+        }
+    }
+}
+
+// token bucket per (level, message template), kept as a theoretical arrival time so admitting is one CAS.
+// Buckets live in a map bounded by maxKeys; once it is full, new templates share one overflow bucket per level,
+// and buckets that are full and have nothing to report are dropped at each summary so the map can shrink
+class MessageRateLimiter {
+
+    interface SuppressionListener {
+        void suppressed(String template, LogLevel level, long count);
+    }
+
+    private static class TokenBucket {
+        final AtomicLong theoreticalArrivalNanos;
+        final LongAdder suppressed = new LongAdder();
+
+        TokenBucket(final long nowNanos) {
+            this.theoreticalArrivalNanos = new AtomicLong(nowNanos);
+        }
+    }
+
+    private static final String OVERFLOW_KEY = "<other messages>";
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxKeys;
+    private final List<ConcurrentHashMap<String, TokenBucket>> bucketsByLevel = new ArrayList<>();
+    private final TokenBucket[] overflowByLevel;
+
+    MessageRateLimiter(final int eventsPerSecond, final int burst, final int maxKeys) {
+        this.intervalNanos = 1_000_000_000L / eventsPerSecond;
+        this.burstNanos = intervalNanos * burst;
+        this.maxKeys = maxKeys;
+        this.overflowByLevel = new TokenBucket[LogLevel.values().length];
+
+        final var now = System.nanoTime();
+
+        for (final var level : LogLevel.values()) {
+            bucketsByLevel.add(new ConcurrentHashMap<>());
+            overflowByLevel[level.ordinal()] = new TokenBucket(now);
+        }
+    }
+
+    boolean tryAcquire(final String template, final LogLevel level) {
+        final var now = System.nanoTime();
+        final var buckets = bucketsByLevel.get(level.ordinal());
+        var bucket = buckets.get(template);
+
+        if (bucket == null) {
+            bucket = buckets.mappingCount() < maxKeys
+                ? buckets.computeIfAbsent(template, key -> new TokenBucket(now))
+                : overflowByLevel[level.ordinal()];
+        }
+
+        final var arrival = bucket.theoreticalArrivalNanos;
+
+        while (true) {
+            final var current = arrival.get();
+            final var next = Math.max(current, now) + intervalNanos;
+
+            if (next - now > burstNanos) {
+                bucket.suppressed.increment();
+                return false;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // reports and resets the suppressed counts
+    void drainSuppressed(final SuppressionListener listener) {
+        final var now = System.nanoTime();
+
+        for (final var level : LogLevel.values()) {
+            final var overflow = overflowByLevel[level.ordinal()].suppressed.sumThenReset();
+
+            if (overflow > 0) {
+                listener.suppressed(OVERFLOW_KEY, level, overflow);
+            }
+            bucketsByLevel.get(level.ordinal()).entrySet().removeIf(entry -> {
+                final var bucket = entry.getValue();
+                final var count = bucket.suppressed.sumThenReset();
+
+                if (count > 0) {
+                    listener.suppressed(entry.getKey(), level, count);
+                    return false;
+                }
+                return bucket.theoreticalArrivalNanos.get() <= now;
+            });
+        }
+    }
+}
+
+class Logger {
+    // created by the class initialiser on first use, which also publishes it safely to every thread
+    private static class InstanceHolder {
+        private static final Logger INSTANCE = new Logger();
+    }
+
+    // copy on write: replaced under the Logger monitor and never mutated, so logging threads read it lock free.
+    // Appenders lock internally where they need to, the dispatch loop itself takes no lock
+    private volatile Appender[] appenders = new Appender[0];
+    private final ThreadLocal<LogEvent> reusableEvents = ThreadLocal.withInitial(LogEvent::new);
+    private volatile boolean garbageFree;
+    private LogLevel minimumLevel = LogLevel.DEBUG;
+    // bit per LogLevel ordinal: at or above minimumLevel and not filtered out by every appender
+    private volatile int enabledLevels;
+    private volatile MessageRateLimiter rateLimiter;
+    private ScheduledExecutorService suppressionReporter;
+
+    private Logger() {
+
+    }
+
+    // filters are read when the appender is added, configure them before that
+    public synchronized void addAppenders(final Appender appender) {
+        final var current = appenders;
+        final var updated = Arrays.copyOf(current, current.length + 1);
+
+        updated[current.length] = appender;
+        appenders = updated;
+        refreshEnabledLevels();
+    }
+
+    // closes and unregisters every appender, so the logger can be configured again from scratch
+    public synchronized void clearAppenders() {
+        final var current = appenders;
+
+        appenders = new Appender[0];
+        refreshEnabledLevels();
+        for (final var appender : current) {
+            appender.close();
+        }
+    }
+
+    public synchronized void setMinimumLevel(final LogLevel minimumLevel) {
+        this.minimumLevel = minimumLevel;
+        refreshEnabledLevels();
+    }
+
+    private void refreshEnabledLevels() {
+        var levels = 0;
+
+        for (final var level : LogLevel.values()) {
+            if (level.compareTo(minimumLevel) < 0) {
+                continue;
+            }
+            for (final var appender : appenders) {
+                if (appender.isEnabled(level)) {
+                    levels |= 1 << level.ordinal();
+                    break;
+                }
+            }
+        }
+        enabledLevels = levels;
+    }
+
+    public boolean isEnabled(final LogLevel level) {
+        return (enabledLevels & (1 << level.ordinal())) != 0;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public boolean isInfoEnabled() {
+        return isEnabled(LogLevel.INFO);
+    }
+
+    public boolean isWarnEnabled() {
+        return isEnabled(LogLevel.WARN);
+    }
+
+    public boolean isErrorEnabled() {
+        return isEnabled(LogLevel.ERROR);
+    }
+
+    public static Logger getLoggerInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    // each thread refills one LogEvent stamped with epoch nanos (millisecond clock) instead of allocating;
+    // appenders must not keep the event past append, the async one copies it into its ring slot.
+    // Parameterized messages are only expanded when an appender formats them, on the async appender's own thread,
+    // so their arguments must not change after the call
+    public void enableGarbageFree() {
+        garbageFree = true;
+    }
+
+    // at most eventsPerSecond (bursts of up to burst) events per level and message template reach the appenders;
+    // every summaryIntervalMillis each template that was cut short logs how many of its events were suppressed
+    public synchronized void enableRateLimiting(final int eventsPerSecond, final int burst, final int maxKeys,
+                                                final long summaryIntervalMillis) {
+        final var previousLimiter = rateLimiter;
+        final var limiter = new MessageRateLimiter(eventsPerSecond, burst, maxKeys);
+
+        rateLimiter = limiter;
+        stopSuppressionReporter(previousLimiter);
+        suppressionReporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            final var thread = new Thread(task, "log-suppression-reporter");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+        suppressionReporter.scheduleAtFixedRate(() -> reportSuppressed(limiter),
+            summaryIntervalMillis, summaryIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // waits out a summary that is being written, then reports what the limiter suppressed since
+    private void stopSuppressionReporter(final MessageRateLimiter limiter) {
+        if (suppressionReporter == null) {
+            return;
+        }
+        suppressionReporter.shutdown();
+        try {
+            if (!suppressionReporter.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("suppression reporter did not stop, its last summary may be incomplete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        suppressionReporter = null;
+        reportSuppressed(limiter);
+    }
+
+    private void reportSuppressed(final MessageRateLimiter limiter) {
+        // summaries go straight to the appenders, they are not rate limited themselves
+        limiter.drainSuppressed((template, level, count) -> {
+            if (isEnabled(level)) {
+                dispatch(newEvent("suppressed " + count + " similar messages: " + template, level));
+            }
+        });
+    }
+
+    // checked before the message is formatted, so a flood of suppressed calls stays cheap
+    private boolean admits(final String template, final LogLevel level) {
+        final var limiter = rateLimiter;
+
+        return limiter == null || limiter.tryAcquire(template, level);
+    }
+
+    private void log(final String msg, final LogLevel level) {
+        if (isEnabled(level) && admits(msg, level)) {
+            dispatch(newEvent(msg, level));
+        }
+    }
+
+    private void log(final LogLevel level, final String pattern, final Object firstArgument,
+                     final Object secondArgument, final int argumentCount) {
+        dispatchParameterized(newEvent(null, level).withTemplate(pattern, firstArgument, secondArgument, argumentCount));
+    }
+
+    private void log(final LogLevel level, final String pattern, final Object[] arguments) {
+        dispatchParameterized(newEvent(null, level).withTemplate(pattern, arguments));
+    }
+
+    private LogEvent newEvent(final String msg, final LogLevel level) {
+        return garbageFree
+            ? reusableEvents.get().set(msg, level, System.currentTimeMillis() * 1_000_000L)
+            : new LogEvent(msg, level, ZonedDateTime.now());
+    }
+
+    // garbage free events carry the template and arguments to the formatter, the others are rendered right away
+    private void dispatchParameterized(final LogEvent logEvent) {
+        if (!garbageFree) {
+            logEvent.message();
+        }
+        dispatch(logEvent);
+    }
+
+    private void dispatch(final LogEvent logEvent) {
+        // one volatile read per call; indexed so that no iterator or capturing lambda is allocated
+        final var currentAppenders = appenders;
+
+        for (int i = 0; i < currentAppenders.length; i += 1) {
+            currentAppenders[i].append(logEvent);
+        }
+    }
+
+    // the parameterized and supplier variants only build the message once the level is known to be enabled
+    public void info(final String msg) {
+        log(msg, LogLevel.INFO);
+    }
+
+    public void info(final String pattern, final Object argument) {
+        if (isEnabled(LogLevel.INFO) && admits(pattern, LogLevel.INFO)) {
+            log(LogLevel.INFO, pattern, argument, null, 1);
+        }
+    }
+
+    public void info(final String pattern, final Object firstArgument, final Object secondArgument) {
+        if (isEnabled(LogLevel.INFO) && admits(pattern, LogLevel.INFO)) {
+            log(LogLevel.INFO, pattern, firstArgument, secondArgument, 2);
+        }
+    }
+
+    public void info(final String pattern, final Object... arguments) {
+        if (isEnabled(LogLevel.INFO) && admits(pattern, LogLevel.INFO)) {
+            log(LogLevel.INFO, pattern, arguments);
+        }
+    }
+
+    public void info(final Supplier<String> messageSupplier) {
+        if (isEnabled(LogLevel.INFO)) {
+            log(messageSupplier.get(), LogLevel.INFO);
+        }
+    }
+
+    public void warn(final String msg) {
+        log(msg, LogLevel.WARN);
+    }
+
+    public void warn(final String pattern, final Object argument) {
+        if (isEnabled(LogLevel.WARN) && admits(pattern, LogLevel.WARN)) {
+            log(LogLevel.WARN, pattern, argument, null, 1);
+        }
+    }
+
+    public void warn(final String pattern, final Object firstArgument, final Object secondArgument) {
+        if (isEnabled(LogLevel.WARN) && admits(pattern, LogLevel.WARN)) {
+            log(LogLevel.WARN, pattern, firstArgument, secondArgument, 2);
+        }
+    }
+
+    public void warn(final String pattern, final Object... arguments) {
+        if (isEnabled(LogLevel.WARN) && admits(pattern, LogLevel.WARN)) {
+            log(LogLevel.WARN, pattern, arguments);
+        }
+    }
+
+    public void warn(final Supplier<String> messageSupplier) {
+        if (isEnabled(LogLevel.WARN)) {
+            log(messageSupplier.get(), LogLevel.WARN);
+        }
+    }
+
+    public void error(final String msg) {
+        log(msg, LogLevel.ERROR);
+    }
+
+    public void error(final String pattern, final Object argument) {
+        if (isEnabled(LogLevel.ERROR) && admits(pattern, LogLevel.ERROR)) {
+            log(LogLevel.ERROR, pattern, argument, null, 1);
+        }
+    }
+
+    public void error(final String pattern, final Object firstArgument, final Object secondArgument) {
+        if (isEnabled(LogLevel.ERROR) && admits(pattern, LogLevel.ERROR)) {
+            log(LogLevel.ERROR, pattern, firstArgument, secondArgument, 2);
+        }
+    }
+
+    public void error(final String pattern, final Object... arguments) {
+        if (isEnabled(LogLevel.ERROR) && admits(pattern, LogLevel.ERROR)) {
+            log(LogLevel.ERROR, pattern, arguments);
+        }
+    }
+
+    public void error(final Supplier<String> messageSupplier) {
+        if (isEnabled(LogLevel.ERROR)) {
+            log(messageSupplier.get(), LogLevel.ERROR);
+        }
+    }
+
+    public void debug(final String msg) {
+        log(msg, LogLevel.DEBUG);
+    }
+
+    public void debug(final String pattern, final Object argument) {
+        if (isEnabled(LogLevel.DEBUG) && admits(pattern, LogLevel.DEBUG)) {
+            log(LogLevel.DEBUG, pattern, argument, null, 1);
+        }
+    }
+
+    public void debug(final String pattern, final Object firstArgument, final Object secondArgument) {
+        if (isEnabled(LogLevel.DEBUG) && admits(pattern, LogLevel.DEBUG)) {
+            log(LogLevel.DEBUG, pattern, firstArgument, secondArgument, 2);
+        }
+    }
+
+    public void debug(final String pattern, final Object... arguments) {
+        if (isEnabled(LogLevel.DEBUG) && admits(pattern, LogLevel.DEBUG)) {
+            log(LogLevel.DEBUG, pattern, arguments);
+        }
+    }
+
+    public void debug(final Supplier<String> messageSupplier) {
+        if (isEnabled(LogLevel.DEBUG)) {
+            log(messageSupplier.get(), LogLevel.DEBUG);
+        }
+    }
+
+    public synchronized void close() {
+        // the final summary has to reach the appenders before they close
+        stopSuppressionReporter(rateLimiter);
+        for (final var appender : appenders) {
+            appender.close();
+        }
+    }
+}
+
+// log throughput of the shared Logger at 1 to 64 threads, dispatching to an appender that only counts.
+// Measures the cost of the logger core itself: level check, event creation and the appender array walk
+class LoggerContentionBenchmark {
+    private static final long RUN_NANOS = 1_000_000_000L;
+
+    private static class CountingAppender implements Appender {
+        final LongAdder appended = new LongAdder();
+
+        @Override
+        public void append(LogEvent event) {
+            appended.increment();
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final var logger = Logger.getLoggerInstance();
+        final var appender = new CountingAppender();
+
+        if (args.length > 0 && args[0].equals("garbage-free")) {
+            logger.enableGarbageFree();
+        }
+        logger.addAppenders(appender);
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            // the first pass at each count is warm-up
+            for (int pass = 0; pass < 2; pass += 1) {
+                final var workers = new Thread[threads];
+                final var deadline = new long[1];
+                final var start = new CountDownLatch(1);
+
+                appender.appended.reset();
+                for (int i = 0; i < threads; i += 1) {
+                    final var id = i;
+
+                    workers[i] = new Thread(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        var sequence = 0L;
+
+                        while (System.nanoTime() < deadline[0]) {
+                            logger.info("worker {} sequence {}", id, sequence);
+                            sequence += 1;
+                        }
+                    });
+                    workers[i].start();
+                }
+                deadline[0] = System.nanoTime() + RUN_NANOS;
+                start.countDown();
+                for (final var worker : workers) {
+                    worker.join();
+                }
+                if (pass == 1) {
+                    final var perSecond = appender.appended.sum() * 1_000_000_000.0 / RUN_NANOS;
+
+                    System.out.println(String.format("threads=%-3d %,14.0f events/s %,12.0f per thread",
+                        threads, perSecond, perSecond / threads));
+                }
+            }
+        }
+    }
+}
+
+// throughput, latency percentiles and producer allocation of Logger.info for every appender and formatter pairing,
+// at 1, 4 and 16 producer threads, with the level either reaching the appenders or filtered out in the logger.
+// Usage: LoggerBenchmark [measure millis] [name filter] [garbage-free]
+// Latency is timed per call with System.nanoTime, so it includes roughly one clock read of overhead; allocation
+// counts only the producer threads, background writer and compressor threads are not included
+class LoggerBenchmark {
+    private static final int[] PRODUCER_THREADS = {1, 4, 16};
+    private static final int LATENCY_SAMPLES_PER_THREAD = 1 << 18;
+    // boxed up front so that B/op reflects the logger, not the benchmark boxing its own arguments
+    private static final Long[] ARGUMENTS = new Long[1024];
+
+    static {
+        for (int i = 0; i < ARGUMENTS.length; i += 1) {
+            ARGUMENTS[i] = 1_000_000L + i;
+        }
+    }
+
+    private interface AppenderFactory {
+        Appender create(Formatter formatter, Filter filter, String filePath);
+    }
+
+    private static final String[] APPENDER_NAMES = {"console", "file", "async", "mapped", "rolling"};
+    private static final AppenderFactory[] APPENDERS = {
+        (formatter, filter, filePath) -> new ConsoleAppender(formatter, filter),
+        FileAppender::new,
+        AsyncFileAppender::new,
+        MappedFileAppender::new,
+        RollingFileAppender::new
+    };
+
+    private static final String[] FORMATTER_NAMES = {"simple", "pretty", "garbage-free"};
+
+    private static Formatter formatter(final int index) {
+        switch (index) {
+            case 0:
+                return new SimpleTextFormatter();
+            case 1:
+                return new PrettyFormatter();
+            default:
+                return new GarbageFreeFormatter();
+        }
+    }
+
+    private static class RunResult {
+        long events;
+        long allocatedBytes;
+        final long[] latencies;
+        int latencyCount;
+
+        RunResult(final int samples) {
+            this.latencies = new long[samples];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final var measureNanos = (args.length > 0 ? Long.parseLong(args[0]) : 1_000L) * 1_000_000L;
+        final var nameFilter = args.length > 1 ? args[1] : "";
+        final var logger = Logger.getLoggerInstance();
+        final var directory = Files.createTempDirectory("logger-benchmark");
+        final var console = System.out;
+
+        if (args.length > 2 && args[2].equals("garbage-free")) {
+            logger.enableGarbageFree();
+        }
+        console.println(String.format("%-8s %-13s %-7s %-3s %14s %9s %9s %9s %9s",
+            "appender", "formatter", "level", "thr", "events/s", "p50 ns", "p99 ns", "p999 ns", "B/op"));
+
+        for (int appender = 0; appender <= APPENDERS.length; appender += 1) {
+            // the binary appender has no formatter, it runs once
+            final var formatterCount = appender == APPENDERS.length ? 1 : FORMATTER_NAMES.length;
+
+            for (int formatter = 0; formatter < formatterCount; formatter += 1) {
+                final var appenderName = appender == APPENDERS.length ? "binary" : APPENDER_NAMES[appender];
+                final var formatterName = appender == APPENDERS.length ? "-" : FORMATTER_NAMES[formatter];
+
+                if (!(appenderName + " " + formatterName).contains(nameFilter)) {
+                    continue;
+                }
+                for (final var filtered : new boolean[]{false, true}) {
+                    for (final var threads : PRODUCER_THREADS) {
+                        final var filePath = directory.resolve(appenderName + "-" + formatterName + ".log").toString();
+                        final var filter = new LevelFilter().addLevelsToBeFiltered(LogLevel.DEBUG);
+
+                        logger.addAppenders(appender == APPENDERS.length
+                            ? new BinaryFileAppender(filter, filePath)
+                            : APPENDERS[appender].create(formatter(formatter), filter, filePath));
+                        // console and file appenders print every event, keep that off the report
+                        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                        try {
+                            run(logger, filtered, threads, measureNanos / 2);
+                            final var result = run(logger, filtered, threads, measureNanos);
+
+                            report(console, appenderName, formatterName, filtered, threads, measureNanos, result);
+                        } finally {
+                            logger.clearAppenders();
+                            System.setOut(console);
+                            deleteRecursively(directory, false);
+                        }
+                    }
+                }
+            }
+        }
+        deleteRecursively(directory, true);
+    }
+
+    private static RunResult run(final Logger logger, final boolean filtered, final int threads,
+                                 final long durationNanos) throws InterruptedException {
+        final var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final var results = new RunResult[threads];
+        final var workers = new Thread[threads];
+        final var start = new CountDownLatch(1);
+        final var deadline = new long[1];
+
+        for (int i = 0; i < threads; i += 1) {
+            final var result = new RunResult(LATENCY_SAMPLES_PER_THREAD);
+
+            results[i] = result;
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                final var threadId = Thread.currentThread().getId();
+                final var allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+                final var end = deadline[0];
+                var events = 0L;
+                var now = System.nanoTime();
+
+                while (now < end) {
+                    final var order = ARGUMENTS[(int) (events & (ARGUMENTS.length - 1))];
+                    final var quantity = ARGUMENTS[(int) (now & (ARGUMENTS.length - 1))];
+
+                    if (filtered) {
+                        logger.debug("order {} filled quantity {}", order, quantity);
+                    } else {
+                        logger.info("order {} filled quantity {}", order, quantity);
+                    }
+                    final var after = System.nanoTime();
+
+                    // keeps the most recent samples once the buffer is full
+                    result.latencies[(int) (events & (LATENCY_SAMPLES_PER_THREAD - 1))] = after - now;
+                    now = after;
+                    events += 1;
+                }
+                result.allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+                result.events = events;
+                result.latencyCount = (int) Math.min(events, LATENCY_SAMPLES_PER_THREAD);
+            });
+            workers[i].start();
+        }
+        deadline[0] = System.nanoTime() + durationNanos;
+        start.countDown();
+        for (final var worker : workers) {
+            worker.join();
+        }
+
+        final var merged = new RunResult(Arrays.stream(results).mapToInt(result -> result.latencyCount).sum());
+
+        for (final var result : results) {
+            System.arraycopy(result.latencies, 0, merged.latencies, merged.latencyCount, result.latencyCount);
+            merged.latencyCount += result.latencyCount;
+            merged.events += result.events;
+            merged.allocatedBytes += result.allocatedBytes;
+        }
+        Arrays.sort(merged.latencies);
+        return merged;
+    }
+
+    private static void report(final PrintStream out, final String appender, final String formatter,
+                               final boolean filtered, final int threads, final long durationNanos,
+                               final RunResult result) {
+        final var latencies = result.latencies;
+
+        out.println(String.format("%-8s %-13s %-7s %-3d %,14.0f %,9d %,9d %,9d %9.1f",
+            appender, formatter, filtered ? "debug" : "info", threads,
+            result.events * 1_000_000_000.0 / durationNanos,
+            latencies[(int) (latencies.length * 0.50)],
+            latencies[(int) (latencies.length * 0.99)],
+            latencies[(int) (latencies.length * 0.999)],
+            (double) result.allocatedBytes / Math.max(1, result.events)));
+    }
+
+    private static void deleteRecursively(final Path directory, final boolean includingDirectory) throws IOException {
+        try (final var files = Files.list(directory)) {
+            for (final var file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        if (includingDirectory) {
+            Files.delete(directory);
+        }
     }
 }
 
@@ -199,12 +2358,13 @@ public class LowLevelDesignLogger {
         final LevelFilter filter = new LevelFilter().addLevelsToBeFiltered(LogLevel.DEBUG);
 
         logger.addAppenders(new ConsoleAppender(formatter, filter));
-        logger.addAppenders(new FileAppender(new PrettyFormatter(), filter, "systemLogs.log"));
+        logger.addAppenders(new AsyncFileAppender(new PrettyFormatter(), filter, "systemLogs.log"));
 
         for (int i = 0 ; i < 100 ; i += 1) {
-            logger.info("Hello World!" + i);
-            logger.debug("Trobuleshooting" + i);
+            logger.info("Hello World!{}", i);
+            logger.debug("Trobuleshooting{}", i);
         }
         logger.error("Something went wrong");
+        logger.close();
     }
 }
@@ -4,13 +4,30 @@
 // Subscriber
 // Broker
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 class Message {
     @Override
@@ -38,6 +55,14 @@ class Message {
 //        this.offset = offset;
     }
 
+    // a message read back from a topic's commit log
+    Message(String key, String value, ZonedDateTime createdAt, Long offset) {
+        this.key = key;
+        this.value = value;
+        this.createdAt = createdAt;
+        this.offset = offset;
+    }
+
     public String getKey() {
         return key;
     }
@@ -121,9 +146,375 @@ class Subscriber implements PubSubUser {
     }
 }
 
+// one file of a topic's commit log, named after the offset of its first message. Records are
+// [int length][long offset][long createdAt epoch nanos][int key length][key][int value length][value], with -1 as the
+// length of a null key or value. The record length goes
+// in last, so a crash in the middle of an append leaves a zero length that recovery stops at. Every
+// INDEX_INTERVAL_BYTES a (relative offset, position) entry is added to the sparse .index file; reads binary search
+// it and scan forward from the entry
+class LogSegment {
+    private static final int INDEX_INTERVAL_BYTES = 4096;
+    private static final int RECORD_HEADER = 4 + 8 + 8 + 4 + 4;
+
+    final long baseOffset;
+    private final Path logFile;
+    private final Path indexFile;
+    private final FileChannel logChannel;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer buffer;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(8);
+    private int[] indexOffsets = new int[64];
+    private int[] indexPositions = new int[64];
+    private int indexSize;
+    private int size;
+    private long nextOffset;
+    private long lastCreatedAtNanos;
+
+    // maps at least capacity bytes; existing files are recovered up to their last complete record
+    LogSegment(final Path directory, final long baseOffset, final int capacity) throws IOException {
+        this.baseOffset = baseOffset;
+        this.logFile = directory.resolve(String.format("%020d.log", baseOffset));
+        this.indexFile = directory.resolve(String.format("%020d.index", baseOffset));
+        this.logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(logChannel.size(), capacity));
+        recover();
+    }
+
+    static int recordSize(final byte[] key, final byte[] value) {
+        return RECORD_HEADER + (key == null ? 0 : key.length) + (value == null ? 0 : value.length);
+    }
+
+    private void recover() throws IOException {
+        final var entries = ByteBuffer.allocate((int) (indexChannel.size() / 8 * 8));
+
+        indexChannel.read(entries, 0);
+        entries.flip();
+        while (entries.hasRemaining()) {
+            addIndexEntry(entries.getInt(), entries.getInt());
+        }
+
+        // a torn write can leave the last entries pointing at zeros or into a record, fall back to the newest entry
+        // that really starts the record it names, or to the start of the segment
+        while (indexSize > 0 && !isRecordAt(indexPositions[indexSize - 1], baseOffset + indexOffsets[indexSize - 1])) {
+            indexSize -= 1;
+        }
+
+        var position = indexSize == 0 ? 0 : indexPositions[indexSize - 1];
+
+        nextOffset = baseOffset + (indexSize == 0 ? 0 : indexOffsets[indexSize - 1]);
+        while (isRecordAt(position, nextOffset)) {
+            lastCreatedAtNanos = buffer.getLong(position + 12);
+            position += 4 + buffer.getInt(position);
+            nextOffset += 1;
+        }
+        size = position;
+        indexChannel.truncate(indexSize * 8L);
+    }
+
+    // a complete record for offset starts at position
+    private boolean isRecordAt(final int position, final long offset) {
+        if (position < 0 || position + (long) RECORD_HEADER > buffer.capacity()) {
+            return false;
+        }
+        final var length = buffer.getInt(position);
+
+        return length >= RECORD_HEADER - 4
+            && position + 4L + length <= buffer.capacity()
+            && buffer.getLong(position + 4) == offset;
+    }
+
+    private void addIndexEntry(final int relativeOffset, final int position) {
+        if (indexSize == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+        }
+        indexOffsets[indexSize] = relativeOffset;
+        indexPositions[indexSize] = position;
+        indexSize += 1;
+    }
+
+    boolean hasRoomFor(final int recordSize) {
+        return (long) size + recordSize <= buffer.capacity();
+    }
+
+    void ensureCapacity(final int capacity) throws IOException {
+        if (buffer.capacity() < capacity) {
+            buffer = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    long append(final byte[] key, final byte[] value, final long createdAtNanos) throws IOException {
+        final var offset = nextOffset;
+        final var position = size;
+        final var recordSize = recordSize(key, value);
+
+        buffer.position(position + 4);
+        buffer.putLong(offset).putLong(createdAtNanos);
+        putBytes(key);
+        putBytes(value);
+        buffer.putInt(position, recordSize - 4);
+
+        if (indexSize == 0 || position - indexPositions[indexSize - 1] >= INDEX_INTERVAL_BYTES) {
+            final var relativeOffset = (int) (offset - baseOffset);
+
+            addIndexEntry(relativeOffset, position);
+            indexChannel.write(indexEntry.clear().putInt(relativeOffset).putInt(position).flip(), indexSize * 8L - 8);
+        }
+        size += recordSize;
+        nextOffset = offset + 1;
+        lastCreatedAtNanos = createdAtNanos;
+        return offset;
+    }
+
+    private void putBytes(final byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private String getString(final int position) {
+        final var length = buffer.getInt(position);
+
+        if (length < 0) {
+            return null;
+        }
+        final var bytes = new byte[length];
+
+        buffer.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // null when the offset is not in this segment
+    Message read(final long offset) {
+        if (offset < baseOffset || offset >= nextOffset) {
+            return null;
+        }
+        final var relativeOffset = (int) (offset - baseOffset);
+        var low = 0;
+        var high = indexSize - 1;
+
+        // last entry at or before the offset; the first record is always indexed
+        while (low < high) {
+            final var middle = (low + high + 1) >>> 1;
+
+            if (indexOffsets[middle] <= relativeOffset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        var position = indexPositions[low];
+
+        while (buffer.getLong(position + 4) != offset) {
+            position += 4 + buffer.getInt(position);
+        }
+
+        final var createdAtNanos = buffer.getLong(position + 12);
+        final var keyPosition = position + 20;
+        final var valuePosition = keyPosition + 4 + Math.max(buffer.getInt(keyPosition), 0);
+
+        return new Message(getString(keyPosition), getString(valuePosition),
+            Instant.ofEpochSecond(0L, createdAtNanos).atZone(ZoneId.systemDefault()), offset);
+    }
+
+    long nextOffset() {
+        return nextOffset;
+    }
+
+    long sizeInBytes() {
+        return size;
+    }
+
+    long lastCreatedAtNanos() {
+        return lastCreatedAtNanos;
+    }
+
+    // flushes and trims the preallocated tail; the mapping stays usable for reads
+    void seal() throws IOException {
+        buffer.force();
+        logChannel.truncate(size);
+        indexChannel.force(false);
+    }
+
+    void close() throws IOException {
+        seal();
+        logChannel.close();
+        indexChannel.close();
+    }
+
+    void delete() throws IOException {
+        logChannel.close();
+        indexChannel.close();
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(indexFile);
+    }
+}
+
+// a topic's messages as a directory of LogSegments, oldest first with appends going to the last one. Offsets are
+// dense and come from the log, so they survive restarts. When the active segment is full it is sealed and a new one
+// started. Retention drops the oldest segments past retentionBytes in total or whose newest message is older than
+// retentionMillis; it runs at every rollover and on a timer, so topics that stop receiving messages still age out
+class CommitLog {
+    private static final long MAX_RETENTION_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // shared by every log, the checks are short and only run once per period
+    private static final ScheduledExecutorService RETENTION_CHECKER = Executors.newSingleThreadScheduledExecutor(task -> {
+        final var thread = new Thread(task, "commit-log-retention");
+
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final List<LogSegment> segments = new ArrayList<>();
+    private final ScheduledFuture<?> retentionCheck;
+    private boolean closed;
+
+    CommitLog(final Path directory, final int segmentBytes, final long retentionBytes, final long retentionMillis) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+
+        try {
+            Files.createDirectories(directory);
+            final List<Long> baseOffsets;
+
+            try (final var files = Files.list(directory)) {
+                baseOffsets = files
+                    .map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".log"))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - ".log".length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+            }
+            for (int i = 0; i < baseOffsets.size(); i += 1) {
+                // sealed segments are mapped as they are, only the active one gets room to grow
+                segments.add(new LogSegment(directory, baseOffsets.get(i), i == baseOffsets.size() - 1 ? segmentBytes : 0));
+            }
+            if (segments.isEmpty()) {
+                segments.add(new LogSegment(directory, 0L, segmentBytes));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final var checkPeriodMillis = Math.max(1L, Math.min(retentionMillis, MAX_RETENTION_CHECK_MILLIS));
+
+        retentionCheck = RETENTION_CHECKER.scheduleWithFixedDelay(() -> {
+            try {
+                enforceRetention();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, checkPeriodMillis, checkPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized long append(final Message msg) {
+        final var key = msg.getKey() == null ? null : msg.getKey().getBytes(StandardCharsets.UTF_8);
+        final var value = msg.getValue() == null ? null : msg.getValue().getBytes(StandardCharsets.UTF_8);
+        final var recordSize = LogSegment.recordSize(key, value);
+        final var createdAt = msg.getCreatedAt();
+
+        try {
+            var active = segments.get(segments.size() - 1);
+
+            if (!active.hasRoomFor(recordSize)) {
+                if (active.sizeInBytes() == 0) {
+                    // rolling an empty segment would reuse its base offset and so its files, grow it instead
+                    active.ensureCapacity(recordSize);
+                } else {
+                    active.seal();
+                    // a message bigger than a segment gets a segment of its own size
+                    active = new LogSegment(directory, active.nextOffset(), Math.max(segmentBytes, recordSize));
+                    segments.add(active);
+                    enforceRetention();
+                }
+            }
+            return active.append(key, value, createdAt.toEpochSecond() * 1_000_000_000L + createdAt.getNano());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // null once retention has deleted the offset or before it is written
+    synchronized Message read(final long offset) {
+        var low = 0;
+        var high = segments.size() - 1;
+
+        while (low < high) {
+            final var middle = (low + high + 1) >>> 1;
+
+            if (segments.get(middle).baseOffset <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return segments.get(low).read(offset);
+    }
+
+    synchronized long startOffset() {
+        return segments.get(0).baseOffset;
+    }
+
+    synchronized long nextOffset() {
+        return segments.get(segments.size() - 1).nextOffset();
+    }
+
+    // the active segment is never deleted
+    synchronized void enforceRetention() throws IOException {
+        if (closed) {
+            return;
+        }
+        var totalBytes = 0L;
+
+        for (final var segment : segments) {
+            totalBytes += segment.sizeInBytes();
+        }
+
+        final var nowMillis = System.currentTimeMillis();
+
+        while (segments.size() > 1) {
+            final var oldest = segments.get(0);
+            final var ageMillis = nowMillis - oldest.lastCreatedAtNanos() / 1_000_000L;
+
+            if (totalBytes <= retentionBytes && ageMillis <= retentionMillis) {
+                break;
+            }
+            totalBytes -= oldest.sizeInBytes();
+            oldest.delete();
+            segments.remove(0);
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+        retentionCheck.cancel(false);
+        try {
+            for (final var segment : segments) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
+
 class Topic {
     private static final AtomicLong ID_GENERATOR = new AtomicLong(0L);
-    private final List<Message> messages;
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final long RETENTION_BYTES = 16L * 1024 * 1024 * 1024;
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private final CommitLog messages;
 
     public Long getId() {
         return id;
@@ -133,9 +524,11 @@ class Topic {
     private final List<Subscriber> subscribers;
     private final Map<Subscriber, Long> subscriberToLastReadOffset;
 
-    public Topic() {
+    // messages are kept in <dataDirectory>/topic-<id>, a topic created again with the same id picks up its log
+    public Topic(final Path dataDirectory) {
         id = ID_GENERATOR.getAndIncrement();
-        messages = new ArrayList<>();
+        messages = new CommitLog(dataDirectory.resolve("topic-" + id), SEGMENT_BYTES, RETENTION_BYTES,
+            RETENTION_MILLIS);
         subscribers = new ArrayList<>();
         subscriberToLastReadOffset = new HashMap<>();
     }
@@ -153,7 +546,7 @@ class Topic {
 
         System.out.println("Successfully added subscriber - "  + newSubscriber.getId());
 
-        final var lastReadOffSet = Long.valueOf(messages.size());
+        final var lastReadOffSet = Long.valueOf(messages.nextOffset());
 
         subscriberToLastReadOffset.put(newSubscriber, lastReadOffSet - 1);
         subscribers.add(newSubscriber);
@@ -176,8 +569,7 @@ class Topic {
     }
 
     public void publish(final Message msg) {
-        msg.setOffset(Long.valueOf(messages.size()));
-        messages.add(msg);
+        msg.setOffset(messages.append(msg));
 
         this.subscribers.forEach(subscriber -> {
             try {
@@ -188,12 +580,27 @@ class Topic {
             }
         });
     }
+
+    // empty once retention has deleted the offset, or if nothing has been published there yet
+    public Optional<Message> read(final Long offset) {
+        return Optional.ofNullable(messages.read(offset));
+    }
+
+    public void close() {
+        messages.close();
+    }
 }
 
 class Broker {
     private final List<Topic> topics;
+    private final Path dataDirectory;
 
     Broker() {
+        this(Path.of("pubsub-data"));
+    }
+
+    Broker(final Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
         topics = new ArrayList<>();
     }
 
@@ -220,12 +627,16 @@ class Broker {
     }
 
     public Topic onboardNewTopic() {
-        final var newTopic = new Topic();
+        final var newTopic = new Topic(dataDirectory);
 
         topics.add(newTopic);
 
         return newTopic;
     }
+
+    public void close() {
+        topics.forEach(Topic::close);
+    }
 }
 
 public class LowLevelDesignPubSubProblem {
@@ -259,5 +670,7 @@ public class LowLevelDesignPubSubProblem {
         p1.publish(t1, new Message("1", "Vasudha went to Sonu Nigam's show"));
         p1.publish(t1, new Message("2", "Vasudha went to Sonu Nigam's show today"));
         p1.publish(t1, new Message("3", "Vasudha went to Sonu Nigam's show today at 8 PM"));
+
+        b1.close();
     }
 }